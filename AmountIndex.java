@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AmountIndex {
+
+	public static final int BUFFER_SIZE = 1024;
+	private List<long[]> runs;
+	private long[] buffer;
+	private int buffered;
+
+	/**
+	 * Constructor for the AmountIndex object. Each transaction leg is stored as one
+	 * long key holding the amount in the high half and the transaction ID in the
+	 * low half. New keys collect in a small unsorted buffer, which is sorted into a
+	 * run when full; runs are merged whenever the newest is at least as long as the
+	 * one before it, so there are only a logarithmic number of sorted runs.
+	 */
+	public AmountIndex() {
+		this.runs = new ArrayList<long[]>();
+		this.buffer = new long[BUFFER_SIZE];
+		this.buffered = 0;
+	}
+
+	/**
+	 * Records a transaction leg.
+	 *
+	 * @param amount the amount of the leg
+	 * @param id     the transaction ID
+	 */
+	public void add(int amount, int id) {
+		buffer[buffered] = key(amount, id);
+		buffered++;
+		if (buffered == BUFFER_SIZE) {
+			long[] run = buffer;
+			Arrays.sort(run);
+			buffer = new long[BUFFER_SIZE];
+			buffered = 0;
+			while (runs.size() > 0 && runs.get(runs.size() - 1).length <= run.length) {
+				run = merge(runs.remove(runs.size() - 1), run);
+			}
+			runs.add(run);
+		}
+	}
+
+	/**
+	 * Returns the number of legs with an amount between min and max inclusive.
+	 *
+	 * @param min the smallest amount
+	 * @param max the largest amount
+	 * @return the number of legs
+	 */
+	public long count(int min, int max) {
+		long from = key(min, 0);
+		long to = key(max, -1);
+		long count = 0;
+		for (long[] run : runs) {
+			count += upperBound(run, to) - lowerBound(run, from);
+		}
+		for (int i = 0; i < buffered; i++) {
+			if (buffer[i] >= from && buffer[i] <= to) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the keys of the legs with an amount between min and max inclusive,
+	 * ordered by amount then transaction ID, skipping the first skip matches.
+	 *
+	 * @param min   the smallest amount
+	 * @param max   the largest amount
+	 * @param skip  the number of matches to skip
+	 * @param limit the largest number of keys to return
+	 * @return the matching keys
+	 */
+	public long[] find(int min, int max, long skip, int limit) {
+		long from = key(min, 0);
+		long to = key(max, -1);
+		List<long[]> sources = new ArrayList<long[]>(runs);
+		long[] pending = new long[buffered];
+		int matches = 0;
+		for (int i = 0; i < buffered; i++) {
+			if (buffer[i] >= from && buffer[i] <= to) {
+				pending[matches] = buffer[i];
+				matches++;
+			}
+		}
+		pending = Arrays.copyOf(pending, matches);
+		Arrays.sort(pending);
+		sources.add(pending);
+		int[] next = new int[sources.size()];
+		for (int i = 0; i < sources.size(); i++) {
+			next[i] = lowerBound(sources.get(i), from);
+		}
+		long[] found = new long[limit];
+		int size = 0;
+		while (size < limit) {
+			int best = -1;
+			for (int i = 0; i < sources.size(); i++) {
+				long[] source = sources.get(i);
+				if (next[i] < source.length && source[next[i]] <= to
+						&& (best == -1 || source[next[i]] < sources.get(best)[next[best]])) {
+					best = i;
+				}
+			}
+			if (best == -1) {
+				break;
+			}
+			long key = sources.get(best)[next[best]];
+			next[best]++;
+			if (skip > 0) {
+				skip--;
+				continue;
+			}
+			found[size] = key;
+			size++;
+		}
+		return Arrays.copyOf(found, size);
+	}
+
+	/**
+	 * Returns the amount stored in a key.
+	 *
+	 * @param key the key
+	 * @return the amount
+	 */
+	public static int amount(long key) {
+		return (int) (key >>> 32);
+	}
+
+	/**
+	 * Returns the transaction ID stored in a key.
+	 *
+	 * @param key the key
+	 * @return the transaction ID
+	 */
+	public static int id(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Returns the key of a leg.
+	 *
+	 * @param amount the amount of the leg
+	 * @param id     the transaction ID
+	 * @return the key
+	 */
+	public static long key(int amount, int id) {
+		return ((long) amount << 32) | (id & 0xffffffffL);
+	}
+
+	private static int lowerBound(long[] run, long key) {
+		int low = 0;
+		int high = run.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (run[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static int upperBound(long[] run, long key) {
+		int low = 0;
+		int high = run.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (run[mid] <= key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static long[] merge(long[] a, long[] b) {
+		long[] merged = new long[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < a.length && j < b.length) {
+			merged[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+		}
+		while (i < a.length) {
+			merged[k++] = a[i++];
+		}
+		while (j < b.length) {
+			merged[k++] = b[j++];
+		}
+		return merged;
+	}
+}
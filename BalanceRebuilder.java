@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BalanceRebuilder {
+
+	/**
+	 * Returns the net change in balance of every account over a ledger. The ledger
+	 * (or, for an off-heap ledger, its records) is split into one contiguous range
+	 * per thread, each thread adds its range
+	 * into its own delta array and the arrays are summed at the end.
+	 *
+	 * @param ledger       the list of transactions
+	 * @param firstAccount the lowest account number
+	 * @param accountCount the number of consecutive account numbers
+	 * @param threads      the number of threads to use
+	 * @return the net change per account, indexed by account number - firstAccount
+	 */
+	public static long[] deltas(final List<Transaction> ledger, final int firstAccount, final int accountCount,
+			int threads) {
+		int size = ledger instanceof MappedLedger ? ((MappedLedger) ledger).recordCount() : ledger.size();
+		threads = Math.max(1, Math.min(threads, size / 100000 + 1));
+		if (threads == 1) {
+			return deltas(ledger, firstAccount, accountCount, 0, size);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> parts = new ArrayList<Future<long[]>>();
+		int chunk = (size + threads - 1) / threads;
+		for (int from = 0; from < size; from += chunk) {
+			final int start = from;
+			final int end = Math.min(size, from + chunk);
+			parts.add(pool.submit(() -> deltas(ledger, firstAccount, accountCount, start, end)));
+		}
+		long[] total = new long[accountCount];
+		try {
+			for (Future<long[]> part : parts) {
+				long[] delta = part.get();
+				for (int i = 0; i < accountCount; i++) {
+					total[i] += delta[i];
+				}
+			}
+		} catch (InterruptedException | ExecutionException ex) {
+			throw new IllegalStateException("balance rebuild failed", ex);
+		} finally {
+			pool.shutdown();
+		}
+		return total;
+	}
+
+	private static long[] deltas(List<Transaction> ledger, int firstAccount, int accountCount, int from, int to) {
+		long[] delta = new long[accountCount];
+		if (ledger instanceof MappedLedger) {
+			MappedLedger mapped = (MappedLedger) ledger;
+			for (int i = from; i < to; i++) {
+				int amount = mapped.amountAt(i);
+				delta[mapped.senderAt(i) - firstAccount] -= amount;
+				delta[mapped.receiverAt(i) - firstAccount] += amount;
+			}
+			return delta;
+		}
+		for (int i = from; i < to; i++) {
+			Transaction t = ledger.get(i);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				delta[t.getSender(leg).getAccNo() - firstAccount] -= t.getAmount(leg);
+				delta[t.getReceiver(leg).getAccNo() - firstAccount] += t.getAmount(leg);
+			}
+		}
+		return delta;
+	}
+}
@@ -1,6 +1,8 @@
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BankAccount {
 
@@ -9,7 +11,12 @@ public class BankAccount {
 	private String first;
 	private String last;
 	private int balance;
+	private int openingBalance;
 	private List<Transaction> transactionHistory;
+	private volatile AtomicLong[] creditCells;
+	private volatile List<List<Transaction>> creditBuffers;
+	private TurnoverRollup turnover;
+	private volatile TurnoverRollup[] creditTurnover;
 
 	/**
 	 * Constructor for the BankAccount object
@@ -24,6 +31,7 @@ public class BankAccount {
 		this.setFirst(first);
 		this.setLast(last);
 		this.setBalance(balance);
+		this.setOpeningBalance(balance);
 		this.setTransactionHistory(new ArrayList<Transaction>());
 	}
 
@@ -44,6 +52,9 @@ public class BankAccount {
 	}
 
 	public int getBalance() {
+		if (creditCells != null) {
+			fold();
+		}
 		return balance;
 	}
 
@@ -51,6 +62,14 @@ public class BankAccount {
 		this.balance = balance;
 	}
 
+	public int getOpeningBalance() {
+		return openingBalance;
+	}
+
+	public void setOpeningBalance(int openingBalance) {
+		this.openingBalance = openingBalance;
+	}
+
 	public int getAccNo() {
 		return accNo;
 	}
@@ -60,6 +79,9 @@ public class BankAccount {
 	}
 
 	public List<Transaction> getTransactionHistory() {
+		if (creditCells != null) {
+			fold();
+		}
 		return transactionHistory;
 	}
 
@@ -83,7 +105,8 @@ public class BankAccount {
 	 * @return the transaction history
 	 */
 	public List<Transaction> history() {
-		if (getTransactionHistory().size() != 0) {
+		fold();
+		if (transactionHistory != null && transactionHistory.size() != 0) {
 			return getTransactionHistory();
 		}
 		return null;
@@ -91,16 +114,77 @@ public class BankAccount {
 
 	/**
 	 * Processes transaction by deducting/adding amount. Returns true if successful,
-	 * false if insufficient funds.
+	 * false if insufficient funds. A multi-leg transaction is applied as its net
+	 * change for the account.
 	 *
 	 * @param transaction the transaction to be processed
 	 * @return the result of the transaction
 	 */
 	public boolean processTransaction(Transaction transaction) {
+		// makeHot publishes the cells last, so once they are seen the buffers and
+		// rollups are too
+		AtomicLong[] cells = creditCells;
+		if (cells != null && transaction.legCount() == 1 && transaction.getReceiver().getAccNo() == accNo) {
+			int stripe = (int) (Thread.currentThread().getId() % cells.length);
+			cells[stripe].addAndGet(transaction.getAmount());
+			if (transaction.getTimestamp() != 0) {
+				synchronized (creditTurnover[stripe]) {
+					creditTurnover[stripe].add(transaction.getTimestamp() / 1000, 0, transaction.getAmount());
+				}
+			}
+			if (transactionHistory != null) {
+				List<Transaction> buffer = creditBuffers.get(stripe);
+				synchronized (buffer) {
+					buffer.add(transaction);
+				}
+			}
+			return true;
+		}
+		return applyTransaction(transaction);
+	}
+
+	/**
+	 * Processes the account's share of a multi-leg transaction, given the totals
+	 * the account sends and receives across its legs, so that applying a batch to
+	 * all of its accounts does not scan the legs once per account. Returns true if
+	 * successful, false if insufficient funds.
+	 *
+	 * @param transaction the transaction to be processed
+	 * @param sent        the total the account sends in the transaction
+	 * @param received    the total the account receives in the transaction
+	 * @return the result of the transaction
+	 */
+	public synchronized boolean processTransaction(Transaction transaction, long sent, long received) {
+		fold();
+		long change = received - sent;
+		if (balance + change < 0) {
+			System.out.println("insufficient funds");
+			return false;
+		}
+		balance += (int) change;
+		if (transactionHistory != null) {
+			transactionHistory.add(transaction);
+		}
+		addTurnover(transaction.getTimestamp(), sent, received);
+		return true;
+	}
+
+	private synchronized boolean applyTransaction(Transaction transaction) {
+		fold();
+		if (transaction.legCount() > 1) {
+			long[] flow = transaction.flows().get(accNo);
+			if (flow == null) {
+				return false;
+			}
+			return processTransaction(transaction, flow[0], flow[1]);
+		}
 		if (transaction.getSender().getAccNo() == accNo) {
 			if (balance >= transaction.getAmount()) {
 				balance = balance - transaction.getAmount();
-				transactionHistory.add(transaction);
+				if (transactionHistory != null) {
+					transactionHistory.add(transaction);
+				}
+				recordTurnover(transaction);
 				return true;
 			} else {
 				System.out.println("insufficient funds");
@@ -108,27 +192,202 @@ public class BankAccount {
 			}
 		} else if (transaction.getReceiver().getAccNo() == accNo) {
 			balance += transaction.getAmount();
-			transactionHistory.add(transaction);
+			if (transactionHistory != null) {
+				transactionHistory.add(transaction);
+			}
+			recordTurnover(transaction);
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Adds the amounts the account sent and received in a transaction to its
+	 * turnover rollup. Transactions without a timestamp, such as those recovered
+	 * from older archives, are left out.
+	 *
+	 * @param transaction the transaction
+	 */
+	public synchronized void recordTurnover(Transaction transaction) {
+		if (transaction.getTimestamp() == 0) {
+			return;
+		}
+		long sent = 0;
+		long received = 0;
+		for (int leg = 0; leg < transaction.legCount(); leg++) {
+			if (transaction.getSender(leg).getAccNo() == accNo) {
+				sent += transaction.getAmount(leg);
+			} else if (transaction.getReceiver(leg).getAccNo() == accNo) {
+				received += transaction.getAmount(leg);
+			}
+		}
+		addTurnover(transaction.getTimestamp(), sent, received);
+	}
+
+	/**
+	 * Adds amounts the account sent and received at a time to its turnover
+	 * rollup. Amounts without a timestamp are left out.
+	 *
+	 * @param timestamp the time in epoch milliseconds, 0 if unknown
+	 * @param sent      the amount sent
+	 * @param received  the amount received
+	 */
+	public synchronized void addTurnover(long timestamp, long sent, long received) {
+		if (timestamp == 0) {
+			return;
+		}
+		if (turnover == null) {
+			turnover = new TurnoverRollup();
+		}
+		turnover.add(timestamp / 1000, sent, received);
+	}
+
+	/**
+	 * Returns the amounts the account sent and received from one time up to
+	 * another as {sent, received}. Both times are rounded down to the minute, or
+	 * to the hour or day once they are older than the rollup keeps minutes or
+	 * hours for, counted back from the account's newest turnover.
+	 *
+	 * @param from the start time in seconds since the epoch, inclusive
+	 * @param to   the end time in seconds since the epoch, exclusive
+	 * @return the turnover
+	 */
+	public synchronized long[] getTurnover(long from, long to) {
+		long[] total = new long[2];
+		long now = turnover == null ? 0 : turnover.getNewest();
+		if (creditTurnover != null) {
+			for (TurnoverRollup stripe : creditTurnover) {
+				synchronized (stripe) {
+					now = Math.max(now, stripe.getNewest());
+				}
+			}
+		}
+		if (turnover != null) {
+			turnover.turnover(from, to, now, total);
+		}
+		if (creditTurnover != null) {
+			for (TurnoverRollup stripe : creditTurnover) {
+				synchronized (stripe) {
+					stripe.turnover(from, to, now, total);
+				}
+			}
+		}
+		return total;
+	}
+
 	public boolean recoverTransaction(Transaction transaction) {
-		transactionHistory.add(transaction);
+		if (transactionHistory != null && (transactionHistory.isEmpty()
+				|| transactionHistory.get(transactionHistory.size() - 1) != transaction)) {
+			transactionHistory.add(transaction);
+		}
 		return true;
 	}
 
+	/**
+	 * Turns the account into a hot account. Incoming single transfers are then
+	 * added to one of several striped cells and history buffers without taking the
+	 * account lock, and are folded into the balance and history whenever the exact
+	 * values are needed.
+	 *
+	 * @param stripes the number of cells
+	 */
+	public synchronized void makeHot(int stripes) {
+		if (creditCells != null) {
+			return;
+		}
+		List<List<Transaction>> buffers = new ArrayList<List<Transaction>>();
+		AtomicLong[] cells = new AtomicLong[stripes];
+		TurnoverRollup[] rollups = new TurnoverRollup[stripes];
+		for (int i = 0; i < stripes; i++) {
+			cells[i] = new AtomicLong();
+			buffers.add(new ArrayList<Transaction>());
+			rollups[i] = new TurnoverRollup();
+		}
+		creditBuffers = buffers;
+		creditTurnover = rollups;
+		creditCells = cells;
+	}
+
+	/**
+	 * Returns true if the account is a hot account.
+	 *
+	 * @return whether the account is hot
+	 */
+	public boolean isHot() {
+		return creditCells != null;
+	}
+
+	/**
+	 * Moves the credits collected in the striped cells and history buffers into the
+	 * balance and the transaction history, keeping the history in ID order.
+	 */
+	private synchronized void fold() {
+		if (creditCells == null) {
+			return;
+		}
+		for (AtomicLong cell : creditCells) {
+			balance += (int) cell.getAndSet(0);
+		}
+		if (transactionHistory == null) {
+			return;
+		}
+		int before = transactionHistory.size();
+		int firstId = Integer.MAX_VALUE;
+		for (List<Transaction> buffer : creditBuffers) {
+			synchronized (buffer) {
+				for (Transaction t : buffer) {
+					firstId = Math.min(firstId, t.getId());
+				}
+				transactionHistory.addAll(buffer);
+				buffer.clear();
+			}
+		}
+		if (transactionHistory.size() == before) {
+			return;
+		}
+		int start = before;
+		while (start > 0 && transactionHistory.get(start - 1).getId() > firstId) {
+			start--;
+		}
+		Collections.sort(transactionHistory.subList(start, transactionHistory.size()),
+				Comparator.comparingInt(Transaction::getId));
+	}
+
+	/**
+	 * Stops the account from keeping its own transaction history. Used in lazy
+	 * history mode, where the history is built from the ledger when first needed.
+	 */
+	public void detachHistory() {
+		transactionHistory = null;
+	}
+
+	/**
+	 * Returns true if the account keeps its own transaction history.
+	 *
+	 * @return whether the history is attached
+	 */
+	public boolean hasHistory() {
+		return transactionHistory != null;
+	}
+
 	/**
 	 * Returns list of transactions where account is sender. Returns null if none.
 	 *
 	 * @return the list of transactions
 	 */
 	public List<Transaction> outgoing() {
+		fold();
+		if (transactionHistory == null) {
+			return null;
+		}
 		List<Transaction> outgoingTransactions = new ArrayList<Transaction>();
 		for (int i = 0; i < transactionHistory.size(); i++) {
-			if (transactionHistory.get(i).getSender().getAccNo() == accNo) {
-				outgoingTransactions.add(transactionHistory.get(i));
+			Transaction t = transactionHistory.get(i);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				if (t.getSender(leg).getAccNo() == accNo) {
+					outgoingTransactions.add(t);
+					break;
+				}
 			}
 		}
 		if (outgoingTransactions.size() == 0) {
@@ -143,10 +402,18 @@ public class BankAccount {
 	 * @return the list of transactions
 	 */
 	public List<Transaction> incoming() {
+		fold();
+		if (transactionHistory == null) {
+			return null;
+		}
 		List<Transaction> incomingTransactions = new ArrayList<Transaction>();
 		for (int i = 0; i < transactionHistory.size(); i++) {
-			if (transactionHistory.get(i).getReceiver().getAccNo() == accNo) {
-				incomingTransactions.add(transactionHistory.get(i));
+			Transaction t = transactionHistory.get(i);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				if (t.getReceiver(leg).getAccNo() == accNo) {
+					incomingTransactions.add(t);
+					break;
+				}
 			}
 		}
 		if (incomingTransactions.size() == 0) {
@@ -1,38 +1,89 @@
 
 import java.io.*;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Scanner;
 
 public class Banker {
 
 	private Map<Integer, BankAccount> accounts;
 	private List<Transaction> transactions;
+	private PostingIndex postings;
+	private NameIndex names;
+	private PairIndex pairs;
+	private AmountIndex amounts;
+	private CheckpointIndex checkpoints;
+	private HistoryCache historyCache;
+	private boolean lazyHistory;
+	private boolean openingsDerived;
+	private String offHeapDirectory;
+	private NettingEngine netting;
+	private boolean nettingEnabled;
+	private Clock clock;
+	private Map<Integer, Integer> creditCounts;
+	private int creditWindow;
+	private int hotThreshold;
+	private TimingWheel scheduler;
+	private Map<Integer, StandingOrder> standingOrders;
+	private int nextOrderNumber;
+	private TraceRecorder recorder;
+	private ChangeFeed feed;
+	private LedgerAuditor auditor;
 
 	private int nextTransactionNumber;
 	private int nextAccountNumber;
 	public static final int DEFAULT = 10000;
+	public static final int HISTORY_CACHE_BUDGET = 1000000;
+	public static final int HOT_STRIPES = 16;
+	public static final int HOT_WINDOW = 10000;
+	public static final int TICK_MILLIS = 1000;
+	public static final int FIND_PAGE_SIZE = 20;
+	public static final int RANGE_PAGE_SIZE = 20;
+	public static final int CHECKPOINT_INTERVAL = 64;
 	private static boolean exited = false;
 
 	public final static String helpString = "EXIT exit from application\n" + "COMMANDS display the command list\n\n"
 			+ "LIST ACCOUNTS displays all accounts in system\n"
 			+ "LIST TRANSACTIONS displays all transactions in system\n\n"
 			+ "DETAILS <accno> displays all details about bank account\n"
-			+ "BALANCE <accno> displays the current balance of bank account\n\n"
+			+ "BALANCE <accno> [AT <id>] displays the current balance of bank account, or the balance after transaction id\n\n"
 			+ "HISTORY <accno> displays all transactions involving an account\n"
 			+ "OUTGOING <accno> displays all transactions paid by account\n"
-			+ "INCOMING <accno> displays all transactions received by account\n\n"
+			+ "INCOMING <accno> displays all transactions received by account\n"
+			+ "TURNOVER <accno> <from> <to> displays the amounts sent and received between two epoch seconds, to the minute"
+			+ " within a day of the latest turnover, to the hour within 31 days, else to the day\n\n"
 			+ "CREATE <first> <last> [<balance>] creates a bank account\n"
-			+ "RENAME <accno> <first> <last> renames a bank account\n\n"
+			+ "BULKLOAD <file> creates an account for every first, last[, balance] row of a CSV file\n"
+			+ "RENAME <accno> <first> <last> renames a bank account\n"
+			+ "FIND <prefix> [<page>] displays accounts whose first name, surname or full name starts with prefix,"
+			+ " which may contain spaces\n\n"
 			+ "PAY <sender> <receiver> <amount> transfers money between account\n"
 			+ "TRANSACTION <id> displays the transaction details\n"
-			+ "CANCEL <id> makes a copy of the transaction with receiver/sender swapped\n\n"
+			+ "CANCEL <id> makes a copy of the transaction with receiver/sender swapped\n"
+			+ "BETWEEN <accA> <accB> [OUT|IN] displays transfers between two accounts, OUT only from accA to accB\n"
+			+ "RANGE [COUNT] <min> <max> [<page>] displays (or counts) transfers with an amount from min to max,"
+			+ " in ID order with --off-heap\n\n"
 			+ "ARCHIVE <ledgerFile> <accountFile> stores the transaction history as a ledger\n"
-			+ "RECOVER <ledgerFile> <accountFile> restores a ledger\n\n"
-			+ "MERGE <accno …> transfers all funds from listed accounts into the first account\n\n"
+			+ "RECOVER <ledgerFile> <accountFile> [LAZY] [REBUILD] restores a ledger, LAZY builds histories on first use\n"
+			+ "REBUILD recomputes balances from the ledger and displays accounts that disagree\n"
+			+ "AUDIT [START <percent> [<watermarkFile>]|STOP] displays or controls the background ledger audit\n\n"
+			+ "MERGE <accno …> transfers all funds from listed accounts into the first account\n"
+			+ "BATCH <sender> <receiver> <amount> … transfers all legs at once or none\n\n"
+			+ "NETTING <window>|OFF queues payments and settles the net transfers every window milliseconds\n"
+			+ "SETTLE settles the queued payments now\n"
+			+ "REQUEST <id> displays a queued payment and the transaction that settled it\n\n"
+			+ "HOT <accno>|AUTO <threshold> credits payments to busy accounts without locking them\n\n"
+			+ "SCHEDULE <sender> <receiver> <amount> <interval> pays amount every interval seconds\n"
+			+ "UNSCHEDULE <id> stops a scheduled payment\n\n"
 			+ "MAX displays the highest balance from all accounts\n"
 			+ "MIN displays the lowest balance from all accounts\n" + "MEAN displays the average balance\n"
 			+ "MEDIAN displays the median balance\n" + "TOTAL displays the amount of money stored by bank";
@@ -43,11 +94,123 @@ public class Banker {
 	public Banker() {
 		this.accounts = new HashMap<Integer, BankAccount>();
 		this.transactions = new ArrayList<Transaction>();
+		this.postings = new PostingIndex();
+		this.names = new NameIndex();
+		this.pairs = new PairIndex();
+		this.amounts = new AmountIndex();
+		this.checkpoints = new CheckpointIndex(CHECKPOINT_INTERVAL);
+		this.historyCache = new HistoryCache(HISTORY_CACHE_BUDGET);
+		this.lazyHistory = false;
+		this.openingsDerived = false;
+		this.offHeapDirectory = null;
+		this.netting = null;
+		this.nettingEnabled = false;
+		this.clock = Clock.systemUTC();
+		this.creditCounts = new HashMap<Integer, Integer>();
+		this.creditWindow = 0;
+		this.hotThreshold = 0;
+		this.scheduler = null;
+		this.standingOrders = new LinkedHashMap<Integer, StandingOrder>();
+		this.nextOrderNumber = 1;
 		this.nextTransactionNumber = 1;
 		this.nextAccountNumber = 100000;
 		exited = false;
 	}
 
+	/**
+	 * Moves the ledger off the heap into memory-mapped segment files. Account
+	 * histories are then read from the segments on first use, as in lazy history
+	 * mode.
+	 *
+	 * @param directory the directory for the segment files
+	 */
+	public synchronized void useOffHeapLedger(String directory) {
+		MappedLedger ledger = new MappedLedger(directory, accNo -> accounts.get(accNo), CHECKPOINT_INTERVAL);
+		ledger.addAll(transactions);
+		for (BankAccount account : accounts.values()) {
+			account.detachHistory();
+		}
+		transactions = ledger;
+		offHeapDirectory = directory;
+		lazyHistory = true;
+		pairs = null;
+		amounts = null;
+		checkpoints = null;
+		historyCache.clear();
+	}
+
+	/**
+	 * Records every command run by runSystem, with its timing and output, to a
+	 * trace file that TraceReplayer can play back.
+	 *
+	 * @param file the name of the trace file
+	 */
+	public void recordTrace(String file) {
+		try {
+			recorder = new TraceRecorder(file);
+		} catch (IOException ex) {
+			System.out.println("no such file");
+		}
+	}
+
+	/**
+	 * Publishes every committed transaction, new account, rename and recovery to a
+	 * change feed file and to its subscribers.
+	 *
+	 * @param file the name of the feed file
+	 * @param port the port subscribers connect to, 0 for the file only
+	 */
+	public synchronized void publishFeed(String file, int port) {
+		try {
+			ChangeFeed newFeed = new ChangeFeed(file, port);
+			if (feed != null) {
+				feed.close();
+			}
+			feed = newFeed;
+		} catch (IOException ex) {
+			System.out.println("feed unavailable: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the accounts of the system, keyed by account number.
+	 *
+	 * @return the accounts
+	 */
+	public Map<Integer, BankAccount> getAccounts() {
+		return accounts;
+	}
+
+	/**
+	 * Gets the ledger of the system.
+	 *
+	 * @return the transactions
+	 */
+	public List<Transaction> getTransactions() {
+		return transactions;
+	}
+
+	/**
+	 * Gets the transaction history of an account, or null if there is no such
+	 * account.
+	 *
+	 * @param accNo the account number
+	 * @return the transaction history
+	 */
+	public synchronized List<Transaction> getHistory(int accNo) {
+		BankAccount account = accounts.get(accNo);
+		return account == null ? null : accountHistory(account);
+	}
+
+	/**
+	 * Sets the clock used for time-based features such as netting windows.
+	 *
+	 * @param clock the clock
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
 	/**
 	 * Displays the list of commands.
 	 */
@@ -68,7 +231,7 @@ public class Banker {
 	/**
 	 * Prints out all account numbers within system in numerical order.
 	 */
-	public void listAccounts() {
+	public synchronized void listAccounts() {
 		if (accounts.size() == 0) {
 			System.out.println("no accounts");
 			return;
@@ -83,16 +246,13 @@ public class Banker {
 	/**
 	 * Prints out all transaction details within system in chronological order.
 	 */
-	public void listTransactions() {
+	public synchronized void listTransactions() {
 		if (transactions.size() < 1) {
 			System.out.println("no transactions");
 			return;
 		}
 		for (int i = 0; i < transactions.size(); i++) {
-			System.out.println(
-					Integer.toString(i + 1) + ": " + Integer.toString(transactions.get(i).getSender().getAccNo())
-							+ " -> " + Integer.toString(transactions.get(i).getReceiver().getAccNo()) + " | $"
-							+ transactions.get(i).getAmount() + " | " + transactions.get(i).getHash());
+			System.out.println(transactions.get(i).get());
 		}
 	}
 
@@ -101,7 +261,7 @@ public class Banker {
 	 *
 	 * @param accNo the account number
 	 */
-	public void details(int accNo) {
+	public synchronized void details(int accNo) {
 		if (accounts.get(accNo) == null) {
 			System.out.println("no such account");
 			return;
@@ -116,7 +276,7 @@ public class Banker {
 	 *
 	 * @param accNo the account number
 	 */
-	public void balance(int accNo) {
+	public synchronized void balance(int accNo) {
 		if (accounts.get(accNo) == null) {
 			System.out.println("no such account");
 			return;
@@ -125,26 +285,111 @@ public class Banker {
 		System.out.println("$" + Integer.toString(account.getBalance()));
 	}
 
+	/**
+	 * Displays the balance of an account as it was right after a transaction. The
+	 * balance is found from the latest checkpoint at or before the transaction,
+	 * replaying the at most CHECKPOINT_INTERVAL postings that follow it. The
+	 * off-heap ledger keeps its own checkpoints and undoes the postings back from
+	 * the first checkpoint after the transaction instead.
+	 *
+	 * @param accNo the account number
+	 * @param id    the transaction ID
+	 */
+	public synchronized void balanceAt(int accNo, int id) {
+		BankAccount account = accounts.get(accNo);
+		if (account == null) {
+			System.out.println("no such account");
+			return;
+		}
+		if (id < 1 || id >= nextTransactionNumber) {
+			System.out.println("no such transaction");
+			return;
+		}
+		if (transactions instanceof MappedLedger) {
+			long change = ((MappedLedger) transactions).changeAt(accNo, id);
+			System.out.println("$" + Long.toString(account.getOpeningBalance() + change));
+			return;
+		}
+		long[] checkpoint = checkpoints.floor(accNo, id);
+		long balance = account.getOpeningBalance() + checkpoint[1];
+		if (lazyHistory && !(transactions instanceof MappedLedger)) {
+			int size = postings.size(accNo);
+			for (int i = postings.after(accNo, (int) checkpoint[0]); i < size; i++) {
+				int posting = postings.get(accNo, i);
+				if (posting > id) {
+					break;
+				}
+				balance += transactions.get(posting - 1).netChange(accNo);
+			}
+		} else {
+			List<Transaction> history = accountHistory(account);
+			int low = 0;
+			int high = history.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (history.get(mid).getId() <= checkpoint[0]) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			for (int i = low; i < history.size() && history.get(i).getId() <= id; i++) {
+				balance += history.get(i).netChange(accNo);
+			}
+		}
+		System.out.println("$" + Long.toString(balance));
+	}
+
+	/**
+	 * Displays the amounts an account sent and received from one time up to
+	 * another, from the account's per minute, hour and day turnover rollups.
+	 *
+	 * @param accNo the account number
+	 * @param from  the start time in seconds since the epoch, inclusive
+	 * @param to    the end time in seconds since the epoch, exclusive
+	 */
+	public synchronized void turnover(int accNo, long from, long to) {
+		BankAccount account = accounts.get(accNo);
+		if (account == null) {
+			System.out.println("no such account");
+			return;
+		}
+		if (from > to) {
+			System.out.println("start must not be after end");
+			return;
+		}
+		long[] total = account.getTurnover(from, to);
+		System.out.println("sent $" + Long.toString(total[0]) + " | received $" + Long.toString(total[1]));
+	}
+
 	/**
 	 * Displays the entire transaction history for a specified account.
 	 *
 	 * @param accNo the account number
 	 */
-	public void history(int accNo) {
+	public synchronized void history(int accNo) {
 		if (accounts.get(accNo) == null) {
 			System.out.println("no such account");
 			return;
 		}
-		if (accounts.get(accNo).getTransactionHistory().size() == 0) {
+		if (transactions instanceof MappedLedger) {
+			if (printMappedHistory(accNo, true, true) == 0) {
+				System.out.println("no history");
+			}
+			return;
+		}
+		List<Transaction> accountTransactions = accountHistory(accounts.get(accNo));
+		if (accountTransactions.size() == 0) {
 			System.out.println("no history");
 			return;
 		}
-		List<Transaction> accountTransactions = accounts.get(accNo).getTransactionHistory();
 		for (int i = 0; i < accountTransactions.size(); i++) {
-			System.out.println(
-					Integer.toString(i + 1) + ": " + Integer.toString(accountTransactions.get(i).getSender().getAccNo())
-							+ " -> " + Integer.toString(accountTransactions.get(i).getReceiver().getAccNo()) + " | $"
-							+ accountTransactions.get(i).getAmount() + " | " + accountTransactions.get(i).getHash());
+			Transaction t = accountTransactions.get(i);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				if (t.getSender(leg).getAccNo() == accNo || t.getReceiver(leg).getAccNo() == accNo) {
+					System.out.println(Integer.toString(i + 1) + ": " + t.leg(leg) + " | " + t.getHash());
+				}
+			}
 		}
 		return;
 	}
@@ -154,20 +399,26 @@ public class Banker {
 	 *
 	 * @param accNo the account number
 	 */
-	public void outgoing(int accNo) {
+	public synchronized void outgoing(int accNo) {
 		if (accounts.get(accNo) == null) {
 			System.out.println("no such account");
 			return;
 		}
+		if (transactions instanceof MappedLedger) {
+			if (printMappedHistory(accNo, true, false) == 0) {
+				System.out.println("no outgoing");
+			}
+			return;
+		}
 		int outgoingFound = 0;
-		List<Transaction> accountTransactions = accounts.get(accNo).getTransactionHistory();
+		List<Transaction> accountTransactions = accountHistory(accounts.get(accNo));
 		for (int i = 0; i < accountTransactions.size(); i++) {
-			if (accountTransactions.get(i).getSender().getAccNo() == accNo) {
-				outgoingFound++;
-				System.out.println(Integer.toString(i + 1) + ": "
-						+ Integer.toString(accountTransactions.get(i).getSender().getAccNo()) + " -> "
-						+ Integer.toString(accountTransactions.get(i).getReceiver().getAccNo()) + " | $"
-						+ accountTransactions.get(i).getAmount() + " | " + accountTransactions.get(i).getHash());
+			Transaction t = accountTransactions.get(i);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				if (t.getSender(leg).getAccNo() == accNo) {
+					outgoingFound++;
+					System.out.println(Integer.toString(i + 1) + ": " + t.leg(leg) + " | " + t.getHash());
+				}
 			}
 		}
 		if (outgoingFound == 0) {
@@ -181,20 +432,26 @@ public class Banker {
 	 *
 	 * @param accNo the account number
 	 */
-	public void incoming(int accNo) {
+	public synchronized void incoming(int accNo) {
 		if (accounts.get(accNo) == null) {
 			System.out.println("no such account");
 			return;
 		}
+		if (transactions instanceof MappedLedger) {
+			if (printMappedHistory(accNo, false, true) == 0) {
+				System.out.println("no incoming");
+			}
+			return;
+		}
 		int incomingFound = 0;
-		List<Transaction> accountTransactions = accounts.get(accNo).getTransactionHistory();
+		List<Transaction> accountTransactions = accountHistory(accounts.get(accNo));
 		for (int i = 0; i < accountTransactions.size(); i++) {
-			if (accountTransactions.get(i).getReceiver().getAccNo() == accNo) {
-				incomingFound++;
-				System.out.println(Integer.toString(i + 1) + ": "
-						+ Integer.toString(accountTransactions.get(i).getSender().getAccNo()) + " -> "
-						+ Integer.toString(accountTransactions.get(i).getReceiver().getAccNo()) + " | $"
-						+ accountTransactions.get(i).getAmount() + " | " + accountTransactions.get(i).getHash());
+			Transaction t = accountTransactions.get(i);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				if (t.getReceiver(leg).getAccNo() == accNo) {
+					incomingFound++;
+					System.out.println(Integer.toString(i + 1) + ": " + t.leg(leg) + " | " + t.getHash());
+				}
 			}
 		}
 		if (incomingFound == 0) {
@@ -203,6 +460,114 @@ public class Banker {
 		return;
 	}
 
+	/**
+	 * Displays the legs of an account's history in the off-heap ledger that it
+	 * sent, received or both, numbered by transaction as HISTORY does. The legs
+	 * are read straight from the mapped records as they are displayed rather
+	 * than built into transactions. Returns the number of legs displayed.
+	 */
+	private int printMappedHistory(int accNo, boolean sent, boolean received) {
+		MappedLedger ledger = (MappedLedger) transactions;
+		PrimitiveIterator.OfInt positions = ledger.historyPositions(accNo);
+		int number = 0;
+		int lastId = 0;
+		int shown = 0;
+		while (positions.hasNext()) {
+			int position = positions.nextInt();
+			int id = ledger.idAt(position);
+			if (id != lastId) {
+				number++;
+				lastId = id;
+			}
+			int sender = ledger.senderAt(position);
+			int receiver = ledger.receiverAt(position);
+			if ((sent && sender == accNo) || (received && receiver == accNo)) {
+				System.out.println(Integer.toString(number) + ": " + Integer.toString(sender) + " -> "
+						+ Integer.toString(receiver) + " | $" + Integer.toString(ledger.amountAt(position)) + " | "
+						+ Integer.toString(ledger.hashAt(position)));
+				shown++;
+			}
+		}
+		return shown;
+	}
+
+	/**
+	 * Returns the transaction history of an account. In lazy history mode the
+	 * history is built from the posting index on first use and kept in the history
+	 * cache. The off-heap ledger's histories are built from its records each time
+	 * and never cached, so they do not fill the heap.
+	 *
+	 * @param account the bank account
+	 * @return the transaction history
+	 */
+	private List<Transaction> accountHistory(BankAccount account) {
+		if (!lazyHistory) {
+			return account.getTransactionHistory();
+		}
+		if (transactions instanceof MappedLedger) {
+			return ((MappedLedger) transactions).history(account.getAccNo());
+		}
+		List<Transaction> history = historyCache.get(account.getAccNo());
+		if (history == null) {
+			history = postings.materialize(account.getAccNo(), transactions);
+			historyCache.put(account.getAccNo(), history);
+		}
+		return history;
+	}
+
+	/**
+	 * Records a new ledger entry in the transaction indexes and any cached
+	 * histories.
+	 *
+	 * @param transaction the transaction added to the ledger
+	 */
+	private void indexTransaction(Transaction transaction) {
+		if (feed != null) {
+			feed.transaction(transaction);
+		}
+		if (checkpoints != null) {
+			checkpoint(checkpoints, transaction);
+		}
+		for (int leg = 0; leg < transaction.legCount(); leg++) {
+			int sender = transaction.getSender(leg).getAccNo();
+			int receiver = transaction.getReceiver(leg).getAccNo();
+			if (pairs != null) {
+				pairs.add(sender, receiver, transaction.getId());
+			}
+			if (amounts != null) {
+				amounts.add(transaction.getAmount(leg), transaction.getId());
+			}
+			if (!lazyHistory) {
+				continue;
+			}
+			if (transactions instanceof MappedLedger) {
+				continue;
+			}
+			postings.add(sender, transaction.getId());
+			postings.add(receiver, transaction.getId());
+			historyCache.append(sender, transaction);
+			historyCache.append(receiver, transaction);
+		}
+	}
+
+	/**
+	 * Records the net change a transaction caused to each account it involves in
+	 * a checkpoint index.
+	 *
+	 * @param index       the checkpoint index
+	 * @param transaction the transaction
+	 */
+	private static void checkpoint(CheckpointIndex index, Transaction transaction) {
+		if (transaction.legCount() == 1) {
+			index.add(transaction.getSender().getAccNo(), transaction.getId(), -transaction.getAmount());
+			index.add(transaction.getReceiver().getAccNo(), transaction.getId(), transaction.getAmount());
+			return;
+		}
+		for (Map.Entry<Integer, long[]> entry : transaction.flows().entrySet()) {
+			index.add(entry.getKey(), transaction.getId(), entry.getValue()[1] - entry.getValue()[0]);
+		}
+	}
+
 	/**
 	 * Creates an account within the system.
 	 *
@@ -210,99 +575,761 @@ public class Banker {
 	 * @param last    the surname of the person
 	 * @param balance the starting balance of the person
 	 */
-	public void createAccount(String first, String last, int balance) {
+	public synchronized void createAccount(String first, String last, int balance) {
 		BankAccount newAccount = new BankAccount(nextAccountNumber, first, last, balance);
+		if (lazyHistory) {
+			newAccount.detachHistory();
+		}
 		accounts.put(nextAccountNumber, newAccount);
+		names.add(nextAccountNumber, first, last);
+		if (feed != null) {
+			feed.account(newAccount);
+		}
 		nextAccountNumber++;
 		System.out.println("success");
 		return;
 	}
 
 	/**
-	 * Renames a specified account.
+	 * Creates an account for every row of a CSV file of first names, surnames and
+	 * optional opening balances, with consecutive account numbers. No account is
+	 * created if any row is malformed. The file is parsed before the Banker lock
+	 * is taken, and the account map and name index are sized for the new accounts
+	 * once rather than grown while they are added.
+	 *
+	 * @param file the name of the CSV file
+	 */
+	public void createBulk(String file) {
+		BulkLoader loader;
+		try {
+			loader = new BulkLoader(file, DEFAULT, Runtime.getRuntime().availableProcessors());
+		} catch (IOException ex) {
+			System.out.println("no such file");
+			return;
+		}
+		if (loader.getMalformedRow() != 0) {
+			System.out.println("malformed row " + Integer.toString(loader.getMalformedRow()));
+			return;
+		}
+		if (loader.size() == 0) {
+			System.out.println("no accounts");
+			return;
+		}
+		synchronized (this) {
+			int firstAccount = nextAccountNumber;
+			// a HashMap only grows by rehashing, so move the accounts into one sized
+			// for the total rather than rehashing at every doubling
+			int total = accounts.size() + loader.size();
+			Map<Integer, BankAccount> presized = new HashMap<Integer, BankAccount>((int) (total / 0.75f) + 1);
+			presized.putAll(accounts);
+			accounts = presized;
+			names.ensureCapacity(firstAccount + loader.size() - 1);
+			for (int i = 0; i < loader.size(); i++) {
+				BankAccount newAccount = new BankAccount(nextAccountNumber, loader.getFirst(i), loader.getLast(i),
+						loader.getBalance(i));
+				if (lazyHistory) {
+					newAccount.detachHistory();
+				}
+				accounts.put(nextAccountNumber, newAccount);
+				names.add(nextAccountNumber, loader.getFirst(i), loader.getLast(i));
+				if (feed != null) {
+					feed.account(newAccount);
+				}
+				nextAccountNumber++;
+			}
+			System.out.println("success: " + Integer.toString(loader.size()) + " accounts "
+					+ Integer.toString(firstAccount) + "-" + Integer.toString(nextAccountNumber - 1));
+		}
+		return;
+	}
+
+	/**
+	 * Displays one page of the accounts whose first name, surname or full name
+	 * starts with a prefix.
+	 *
+	 * @param prefix the name prefix
+	 * @param page   the page number, starting at 1
+	 */
+	public synchronized void find(String prefix, int page) {
+		if (page < 1) {
+			System.out.println("page must be positive");
+			return;
+		}
+		List<Integer> found = names.find(prefix, page, FIND_PAGE_SIZE);
+		if (found.size() == 0) {
+			System.out.println("no matches");
+			return;
+		}
+		for (int i = 0; i < found.size() && i < FIND_PAGE_SIZE; i++) {
+			details(found.get(i));
+		}
+		if (found.size() > FIND_PAGE_SIZE) {
+			System.out.println("more: FIND " + prefix + " " + Integer.toString(page + 1));
+		}
+		return;
+	}
+
+	/**
+	 * Renames a specified account.
+	 *
+	 * @param accNo the account number
+	 * @param first the new first name
+	 * @param last  the new surname
+	 */
+	public synchronized void rename(int accNo, String first, String last) {
+		if (accounts.get(accNo) == null) {
+			System.out.println("no such account");
+			return;
+		}
+		BankAccount account = accounts.get(accNo);
+		names.remove(accNo, account.getFirst(), account.getLast());
+		account.setFirst(first);
+		account.setLast(last);
+		names.add(accNo, first, last);
+		if (feed != null) {
+			feed.rename(accNo, first, last);
+		}
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Creates a transaction between two bank accounts.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @param amount   the amount to be transferred
+	 */
+	public synchronized void pay(int sender, int receiver, int amount) {
+		BankAccount s = accounts.get(sender);
+		BankAccount r = accounts.get(receiver);
+		if (s == null || r == null) {
+			System.out.println("no such account");
+			return;
+		}
+		if (amount <= 0) {
+			System.out.println("amount must be positive");
+			return;
+		}
+		if (s.getAccNo() == r.getAccNo()) {
+			System.out.println("sender cannot be receiver");
+			return;
+		}
+		if (nettingEnabled) {
+			settleIfDue();
+			if (s.getBalance() + netting.position(sender) < amount) {
+				System.out.println("insufficient funds");
+				return;
+			}
+			int request = netting.submit(sender, receiver, amount);
+			if (request == 0) {
+				System.out.println("net transfer between the accounts would be too large");
+				return;
+			}
+			System.out.println("queued " + Integer.toString(request));
+			return;
+		}
+		Transaction newTransaction = new Transaction(nextTransactionNumber, s, r, amount,
+				nextTransactionNumber == 1 ? null : transactions.get(nextTransactionNumber - 2).getHash(),
+				clock.millis());
+		if (!s.processTransaction(newTransaction)) {
+			return;
+		}
+		if (!r.processTransaction(newTransaction)) {
+			return;
+		}
+		transactions.add(newTransaction);
+		indexTransaction(newTransaction);
+		nextTransactionNumber++;
+		noteCredit(r);
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Makes an account a hot account, whose incoming payments are credited without
+	 * taking the account lock.
+	 *
+	 * @param accNo the account number
+	 */
+	public synchronized void hot(int accNo) {
+		if (accounts.get(accNo) == null) {
+			System.out.println("no such account");
+			return;
+		}
+		accounts.get(accNo).makeHot(HOT_STRIPES);
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Turns on hot account detection. An account becomes hot once it receives
+	 * threshold of the last HOT_WINDOW payments. A threshold of 0 turns detection
+	 * off.
+	 *
+	 * @param threshold the number of payments received within a window
+	 */
+	public synchronized void hotAuto(int threshold) {
+		if (threshold < 0) {
+			System.out.println("threshold must be positive");
+			return;
+		}
+		hotThreshold = threshold;
+		creditCounts.clear();
+		creditWindow = 0;
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Counts a payment towards hot account detection.
+	 *
+	 * @param receiver the receiving account
+	 */
+	private void noteCredit(BankAccount receiver) {
+		if (hotThreshold == 0) {
+			return;
+		}
+		if (!receiver.isHot() && creditCounts.merge(receiver.getAccNo(), 1, Integer::sum) >= hotThreshold) {
+			receiver.makeHot(HOT_STRIPES);
+		}
+		creditWindow++;
+		if (creditWindow == HOT_WINDOW) {
+			creditCounts.clear();
+			creditWindow = 0;
+		}
+	}
+
+	/**
+	 * Displays the details for a specified transaction.
+	 *
+	 * @param id the transaction ID
+	 */
+	public synchronized void transaction(int id) {
+		if (id < 1 || id >= nextTransactionNumber) {
+			System.out.println("no such transaction");
+			return;
+		}
+		System.out.println(transactions.get(id - 1).get());
+		return;
+	}
+
+	/**
+	 * Returns the IDs of the transactions with a leg from one account to another
+	 * in ID order. The off-heap ledger has no pair index, as it would grow on the
+	 * heap with every transaction, so the sender's chain of records is walked
+	 * instead.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @return the transaction IDs
+	 */
+	private int[] transfers(int sender, int receiver) {
+		if (pairs == null) {
+			return ((MappedLedger) transactions).transfers(sender, receiver);
+		}
+		return pairs.get(sender, receiver);
+	}
+
+	/**
+	 * Displays the transfers between two accounts in ID order. A direction of OUT
+	 * shows only transfers from the first account to the second, IN only the
+	 * reverse, and null both.
+	 *
+	 * @param accA      the account number of the first account
+	 * @param accB      the account number of the second account
+	 * @param direction OUT, IN or null
+	 */
+	public synchronized void between(int accA, int accB, String direction) {
+		if (accounts.get(accA) == null || accounts.get(accB) == null) {
+			System.out.println("no such account");
+			return;
+		}
+		if (direction != null && !direction.equals("OUT") && !direction.equals("IN")) {
+			System.out.println("direction must be OUT or IN");
+			return;
+		}
+		boolean out = direction == null || direction.equals("OUT");
+		boolean in = direction == null || direction.equals("IN");
+		int[] sent = out ? transfers(accA, accB) : new int[0];
+		int[] received = in ? transfers(accB, accA) : new int[0];
+		if (sent.length == 0 && received.length == 0) {
+			System.out.println("no transfers");
+			return;
+		}
+		int i = 0;
+		int j = 0;
+		while (i < sent.length || j < received.length) {
+			int id;
+			if (j == received.length || (i < sent.length && sent[i] <= received[j])) {
+				id = sent[i];
+			} else {
+				id = received[j];
+			}
+			while (i < sent.length && sent[i] == id) {
+				i++;
+			}
+			while (j < received.length && received[j] == id) {
+				j++;
+			}
+			Transaction t = transactions.get(id - 1);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				int s = t.getSender(leg).getAccNo();
+				int r = t.getReceiver(leg).getAccNo();
+				if ((out && s == accA && r == accB) || (in && s == accB && r == accA)) {
+					System.out.println(Integer.toString(id) + ": " + t.leg(leg) + " | " + t.getHash());
+				}
+			}
+		}
+		return;
+	}
+
+	/**
+	 * Displays one page of the transfers with an amount between min and max
+	 * inclusive, ordered by amount and then transaction ID. The off-heap ledger
+	 * has no amount index, as it would grow on the heap with every leg, so there
+	 * the records are scanned instead and the transfers are ordered by ID.
+	 *
+	 * @param min  the smallest amount
+	 * @param max  the largest amount
+	 * @param page the page number, starting at 1
+	 */
+	public synchronized void range(int min, int max, int page) {
+		if (min > max) {
+			System.out.println("min cannot be above max");
+			return;
+		}
+		if (page < 1) {
+			System.out.println("page must be positive");
+			return;
+		}
+		// one key before the page is fetched so that legs already shown at the end of
+		// the previous page are not repeated
+		int before = page == 1 ? 0 : 1;
+		long skip = (long) (page - 1) * RANGE_PAGE_SIZE - before;
+		long[] found;
+		if (amounts == null) {
+			found = ((MappedLedger) transactions).findAmounts(min, max, skip, RANGE_PAGE_SIZE + 1 + before);
+		} else {
+			found = amounts.find(min, max, skip, RANGE_PAGE_SIZE + 1 + before);
+		}
+		if (found.length <= before) {
+			System.out.println("no transfers");
+			return;
+		}
+		for (int i = before; i < found.length && i < RANGE_PAGE_SIZE + before; i++) {
+			if (i > 0 && found[i] == found[i - 1]) {
+				continue;
+			}
+			int amount = AmountIndex.amount(found[i]);
+			Transaction t = transactions.get(AmountIndex.id(found[i]) - 1);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				if (t.getAmount(leg) == amount) {
+					System.out.println(Integer.toString(t.getId()) + ": " + t.leg(leg) + " | " + t.getHash());
+				}
+			}
+		}
+		if (found.length > RANGE_PAGE_SIZE + before) {
+			System.out.println("more: RANGE " + Integer.toString(min) + " " + Integer.toString(max) + " "
+					+ Integer.toString(page + 1));
+		}
+		return;
+	}
+
+	/**
+	 * Displays the number of transfers with an amount between min and max
+	 * inclusive.
+	 *
+	 * @param min the smallest amount
+	 * @param max the largest amount
+	 */
+	public synchronized void rangeCount(int min, int max) {
+		if (min > max) {
+			System.out.println("min cannot be above max");
+			return;
+		}
+		if (amounts == null) {
+			System.out.println(Long.toString(((MappedLedger) transactions).countAmounts(min, max)));
+		} else {
+			System.out.println(Long.toString(amounts.count(min, max)));
+		}
+		return;
+	}
+
+	/**
+	 * Creates the reverse transaction to the one specified.
+	 *
+	 * @param id the transaction id to be cancelled
+	 */
+	public synchronized void cancel(int id) {
+		if (id < 1 || id >= nextTransactionNumber) {
+			System.out.println("no such transaction");
+			return;
+		}
+		Transaction t = transactions.get(id - 1);
+		if (t.legCount() == 1) {
+			pay(t.getReceiver().getAccNo(), t.getSender().getAccNo(), t.getAmount());
+			return;
+		}
+		settleWindow();
+		int[] senders = new int[t.legCount()];
+		int[] receivers = new int[t.legCount()];
+		int[] amounts = new int[t.legCount()];
+		for (int leg = 0; leg < t.legCount(); leg++) {
+			senders[leg] = t.getReceiver(leg).getAccNo();
+			receivers[leg] = t.getSender(leg).getAccNo();
+			amounts[leg] = t.getAmount(leg);
+		}
+		if (applyBatch(senders, receivers, amounts)) {
+			System.out.println("success");
+		}
+		return;
+	}
+
+	/**
+	 * Transfers money along several legs as a single ledger entry. Every leg is
+	 * checked before any is applied, so either all legs succeed or none do.
+	 *
+	 * @param senders   the account number of the sender of each leg
+	 * @param receivers the account number of the receiver of each leg
+	 * @param amounts   the amount of each leg
+	 */
+	public synchronized void batch(int[] senders, int[] receivers, int[] amounts) {
+		settleWindow();
+		if (amounts.length == 0) {
+			System.out.println("no legs");
+			return;
+		}
+		for (int amount : amounts) {
+			if (amount <= 0) {
+				System.out.println("amount must be positive");
+				return;
+			}
+		}
+		if (applyBatch(senders, receivers, amounts)) {
+			System.out.println("success");
+		}
+		return;
+	}
+
+	/**
+	 * Turns on payment netting. Payments are queued and every window the net
+	 * transfer between each pair of accounts is settled as one transaction.
+	 *
+	 * @param window the length of a settlement window in milliseconds
+	 */
+	public synchronized void netting(long window) {
+		if (window <= 0) {
+			System.out.println("window must be positive");
+			return;
+		}
+		settleWindow();
+		if (netting == null) {
+			netting = new NettingEngine(window, clock.millis());
+		} else {
+			netting.setWindow(window, clock.millis());
+		}
+		nettingEnabled = true;
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Settles any queued payments and turns off payment netting. Earlier requests
+	 * can still be displayed.
+	 */
+	public synchronized void nettingOff() {
+		settleWindow();
+		nettingEnabled = false;
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Settles the queued payments without waiting for the window to end.
+	 */
+	public synchronized void settle() {
+		if (!nettingEnabled) {
+			System.out.println("netting off");
+			return;
+		}
+		if (settleWindow()) {
+			System.out.println("success");
+		}
+		return;
+	}
+
+	/**
+	 * Displays a queued payment and how it was settled.
+	 *
+	 * @param id the request ID
+	 */
+	public synchronized void request(int id) {
+		String request = netting == null ? null : netting.request(id);
+		if (request == null) {
+			System.out.println("no such request");
+			return;
+		}
+		System.out.println(request);
+		return;
+	}
+
+	/**
+	 * Sets up a payment that is made every interval seconds.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @param amount   the amount paid each time
+	 * @param interval the number of seconds between payments
+	 */
+	public synchronized void schedule(int sender, int receiver, int amount, int interval) {
+		if (accounts.get(sender) == null || accounts.get(receiver) == null) {
+			System.out.println("no such account");
+			return;
+		}
+		if (amount <= 0) {
+			System.out.println("amount must be positive");
+			return;
+		}
+		if (sender == receiver) {
+			System.out.println("sender cannot be receiver");
+			return;
+		}
+		if (interval <= 0) {
+			System.out.println("interval must be positive");
+			return;
+		}
+		if (scheduler == null) {
+			scheduler = new TimingWheel(clock.millis() / TICK_MILLIS);
+		}
+		StandingOrder order = new StandingOrder(nextOrderNumber, sender, receiver, amount, interval,
+				scheduler.getCurrentTick() + interval);
+		nextOrderNumber++;
+		standingOrders.put(order.getId(), order);
+		scheduler.schedule(order);
+		System.out.println("scheduled " + Integer.toString(order.getId()));
+		return;
+	}
+
+	/**
+	 * Stops a standing order.
+	 *
+	 * @param id the order ID
+	 */
+	public synchronized void unschedule(int id) {
+		StandingOrder order = standingOrders.remove(id);
+		if (order == null) {
+			System.out.println("no such order");
+			return;
+		}
+		if (scheduler != null) {
+			scheduler.cancel(order);
+		}
+		System.out.println("success");
+		return;
+	}
+
+	/**
+	 * Makes the standing order payments that have become due since the last call,
+	 * jumping straight from one tick with due orders to the next.
+	 *
+	 * @return true if any orders were due
+	 */
+	public synchronized boolean runStandingOrders() {
+		if (scheduler == null) {
+			return false;
+		}
+		boolean paid = false;
+		long now = clock.millis() / TICK_MILLIS;
+		while (scheduler.getCurrentTick() < now) {
+			List<StandingOrder> due = scheduler.advance(now);
+			if (due.size() > 0) {
+				payStandingOrders(due);
+				paid = true;
+			}
+		}
+		return paid;
+	}
+
+	/**
+	 * Pays the standing orders due on one tick as a single transaction and
+	 * schedules their next payment. Orders the sender cannot cover are skipped for
+	 * this tick. Orders whose accounts no longer exist, which can happen after a
+	 * recovery, are cancelled.
+	 *
+	 * @param due the due standing orders
+	 */
+	private void payStandingOrders(List<StandingOrder> due) {
+		settleWindow();
+		int[] senders = new int[due.size()];
+		int[] receivers = new int[due.size()];
+		int[] amounts = new int[due.size()];
+		Map<Integer, Long> net = new HashMap<Integer, Long>();
+		int legs = 0;
+		for (StandingOrder order : due) {
+			if (accounts.get(order.getSender()) == null || accounts.get(order.getReceiver()) == null) {
+				standingOrders.remove(order.getId());
+				order.cancel();
+				System.out.println(
+						"standing order " + Integer.toString(order.getId()) + " cancelled - no such account");
+				continue;
+			}
+			long available = accounts.get(order.getSender()).getBalance() + net.getOrDefault(order.getSender(), 0L);
+			if (available >= order.getAmount()) {
+				senders[legs] = order.getSender();
+				receivers[legs] = order.getReceiver();
+				amounts[legs] = order.getAmount();
+				net.merge(order.getSender(), (long) -order.getAmount(), Long::sum);
+				net.merge(order.getReceiver(), (long) order.getAmount(), Long::sum);
+				legs++;
+			}
+			order.setNextDue(order.getNextDue() + order.getInterval());
+			scheduler.schedule(order);
+		}
+		if (legs > 0) {
+			applyBatch(Arrays.copyOf(senders, legs), Arrays.copyOf(receivers, legs), Arrays.copyOf(amounts, legs));
+		}
+	}
+
+	/**
+	 * Settles the current netting window if it has ended.
+	 *
+	 * @return true if the window was settled
+	 */
+	private synchronized boolean settleIfDue() {
+		if (nettingEnabled && netting.due(clock.millis())) {
+			settleWindow();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records the net transfers of the current netting window as one transaction.
+	 * Returns false if the settlement failed, in which case its payments are
+	 * rejected rather than left queued to fail again every window.
 	 *
-	 * @param accNo the account number
-	 * @param first the new first name
-	 * @param last  the new surname
+	 * @return the result of the settlement
 	 */
-	public void rename(int accNo, String first, String last) {
-		if (accounts.get(accNo) == null) {
-			System.out.println("no such account");
-			return;
+	private boolean settleWindow() {
+		if (netting == null) {
+			return true;
 		}
-		BankAccount account = accounts.get(accNo);
-		account.setFirst(first);
-		account.setLast(last);
-		System.out.println("success");
-		return;
+		int settledIn = 0;
+		int[][] legs = netting.netLegs();
+		if (legs[0].length > 0) {
+			if (!applyBatch(legs[0], legs[1], legs[2])) {
+				int rejected = netting.reject(clock.millis());
+				System.out.println("settlement failed - " + Integer.toString(rejected) + " queued payments rejected");
+				return false;
+			}
+			settledIn = nextTransactionNumber - 1;
+		}
+		netting.settled(settledIn, clock.millis());
+		return true;
 	}
 
 	/**
-	 * Creates a transaction between two bank accounts.
+	 * Validates all legs against the net position of each account and then records
+	 * them as one transaction. Returns true if the transaction was recorded.
 	 *
-	 * @param sender   the account number of the sender
-	 * @param receiver the account number of the receiver
-	 * @param amount   the amount to be transferred
+	 * @param senders   the account number of the sender of each leg
+	 * @param receivers the account number of the receiver of each leg
+	 * @param amounts   the amount of each leg
+	 * @return the result of the batch
 	 */
-	public void pay(int sender, int receiver, int amount) {
-		BankAccount s = accounts.get(sender);
-		BankAccount r = accounts.get(receiver);
-		if (s == null || r == null) {
-			System.out.println("no such account");
-			return;
-		}
-		if (amount <= 0) {
-			System.out.println("amount must be positive");
-			return;
+	private boolean applyBatch(int[] senders, int[] receivers, int[] amounts) {
+		BankAccount[] s = new BankAccount[amounts.length];
+		BankAccount[] r = new BankAccount[amounts.length];
+		Map<Integer, long[]> flows = new LinkedHashMap<Integer, long[]>();
+		for (int i = 0; i < amounts.length; i++) {
+			s[i] = accounts.get(senders[i]);
+			r[i] = accounts.get(receivers[i]);
+			if (s[i] == null || r[i] == null) {
+				System.out.println("no such account");
+				return false;
+			}
+			if (senders[i] == receivers[i]) {
+				System.out.println("sender cannot be receiver");
+				return false;
+			}
+			if (amounts[i] <= 0) {
+				System.out.println("amount must be positive");
+				return false;
+			}
+			flows.computeIfAbsent(senders[i], k -> new long[2])[0] += amounts[i];
+			flows.computeIfAbsent(receivers[i], k -> new long[2])[1] += amounts[i];
 		}
-		if (s.getAccNo() == r.getAccNo()) {
-			System.out.println("sender cannot be receiver");
-			return;
+		for (Map.Entry<Integer, long[]> entry : flows.entrySet()) {
+			long[] flow = entry.getValue();
+			if (accounts.get(entry.getKey()).getBalance() + flow[1] - flow[0] < 0) {
+				System.out.println("insufficient funds");
+				return false;
+			}
 		}
-		Transaction newTransaction = new Transaction(nextTransactionNumber, s, r, amount,
-				nextTransactionNumber == 1 ? null : transactions.get(nextTransactionNumber - 2).getHash());
-		boolean senderOk = s.processTransaction(newTransaction);
-		boolean receiverOk = false;
-		if (senderOk) {
-			receiverOk = r.processTransaction(newTransaction);
+		String prevHash = nextTransactionNumber == 1 ? null : transactions.get(nextTransactionNumber - 2).getHash();
+		Transaction newTransaction;
+		if (amounts.length == 1) {
+			newTransaction = new Transaction(nextTransactionNumber, s[0], r[0], amounts[0], prevHash, clock.millis());
 		} else {
-			return;
+			newTransaction = new Transaction(nextTransactionNumber, s, r, amounts, prevHash, clock.millis());
 		}
-		if (senderOk && receiverOk) {
-			transactions.add(newTransaction);
-			nextTransactionNumber++;
-			System.out.println("success");
+		for (Map.Entry<Integer, long[]> entry : flows.entrySet()) {
+			BankAccount account = accounts.get(entry.getKey());
+			if (amounts.length == 1) {
+				account.processTransaction(newTransaction);
+			} else {
+				account.processTransaction(newTransaction, entry.getValue()[0], entry.getValue()[1]);
+			}
 		}
-		return;
+		transactions.add(newTransaction);
+		indexTransaction(newTransaction);
+		nextTransactionNumber++;
+		return true;
 	}
 
 	/**
-	 * Displays the details for a specified transaction.
-	 *
-	 * @param id the transaction ID
+	 * Displays the results of the background ledger audit.
 	 */
-	public void transaction(int id) {
-		if (id < 1 || id >= nextTransactionNumber) {
-			System.out.println("no such transaction");
+	public synchronized void audit() {
+		if (auditor == null) {
+			System.out.println("auditor not running");
 			return;
 		}
-		System.out.println(transactions.get(id - 1).get());
-		return;
+		System.out.println(auditor.status());
 	}
 
 	/**
-	 * Creates the reverse transaction to the one specified.
+	 * Starts auditing the ledger in the background. The auditor keeps the ID and
+	 * hash of the last verified transaction in a watermark file, so that after a
+	 * restart only newer transactions need their hashes checked.
 	 *
-	 * @param id the transaction id to be cancelled
+	 * @param percent       the share of one CPU the auditor may use, in percent
+	 * @param watermarkFile the name of the watermark file, or null for none
 	 */
-	public void cancel(int id) {
-		if (id < 1 || id >= nextTransactionNumber) {
-			System.out.println("no such transaction");
+	public synchronized void auditStart(int percent, String watermarkFile) {
+		if (percent <= 0 || percent > 100) {
+			System.out.println("budget must be from 1 to 100");
 			return;
 		}
-		Transaction t = transactions.get(id - 1);
-		pay(t.getReceiver().getAccNo(), t.getSender().getAccNo(), t.getAmount());
-		return;
+		if (auditor != null) {
+			auditor.stop();
+		}
+		auditor = new LedgerAuditor(this, percent / 100.0, watermarkFile);
+		auditor.start();
+		System.out.println("success");
+	}
+
+	/**
+	 * Stops the background ledger audit, keeping its results.
+	 */
+	public synchronized void auditStop() {
+		if (auditor == null || !auditor.isRunning()) {
+			System.out.println("auditor not running");
+			return;
+		}
+		auditor.stop();
+		System.out.println("success");
 	}
 
 	/**
@@ -311,25 +1338,86 @@ public class Banker {
 	 * @param ledgerFile the name of the ledger file
 	 * @param accFile    the name of the accounts file
 	 */
-	public void archive(String ledgerFile, String accFile) {
+	public synchronized void archive(String ledgerFile, String accFile) {
+		settleWindow();
 		File f1 = new File(ledgerFile);
 		File f2 = new File(accFile);
+		File f3 = new File(accFile + ".orders");
 		f1.delete();
 		f2.delete();
+		f3.delete();
+		if (transactions instanceof MappedLedger) {
+			((MappedLedger) transactions).force();
+		}
 		boolean ledgerResult = archiveTransactions(ledgerFile);
 		boolean accResult = false;
+		boolean ordersResult = false;
 		if (ledgerResult) {
 			accResult = archiveAccounts(accFile);
 		}
-		if (ledgerResult && accResult) {
+		if (accResult) {
+			ordersResult = standingOrders.size() == 0 || archiveOrders(f3.getPath());
+		}
+		if (ledgerResult && accResult && ordersResult) {
 			System.out.println("success");
 		} else {
 			f1.delete();
 			f2.delete();
+			f3.delete();
 		}
 		return;
 	}
 
+	public boolean archiveOrders(String file) {
+		try {
+			FileWriter fileWriter = new FileWriter(file, true);
+			BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+			for (StandingOrder o : standingOrders.values()) {
+				String line = o.getId() + ", " + o.getSender() + ", " + o.getReceiver() + ", " + o.getAmount() + ", "
+						+ o.getInterval() + ", " + o.getNextDue();
+				bufferedWriter.write(line);
+				bufferedWriter.write("\n");
+			}
+			bufferedWriter.close();
+			return true;
+		} catch (IOException ex) {
+			System.out.println("no such file");
+			return false;
+		}
+	}
+
+	/**
+	 * Restores the standing orders archived next to an accounts file. Clears the
+	 * standing orders if there is no such file.
+	 *
+	 * @param file the name of the standing orders file
+	 */
+	private void recoverOrders(String file) {
+		standingOrders.clear();
+		scheduler = new TimingWheel(clock.millis() / TICK_MILLIS);
+		nextOrderNumber = 1;
+		if (!new File(file).exists()) {
+			return;
+		}
+		try {
+			FileReader fr = new FileReader(file);
+			BufferedReader br = new BufferedReader(fr);
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] details = line.split("\\s*,\\s*");
+				StandingOrder order = new StandingOrder(Integer.parseInt(details[0]), Integer.parseInt(details[1]),
+						Integer.parseInt(details[2]), Integer.parseInt(details[3]), Integer.parseInt(details[4]),
+						Long.parseLong(details[5]));
+				standingOrders.put(order.getId(), order);
+				scheduler.schedule(order);
+				nextOrderNumber = Math.max(nextOrderNumber, order.getId() + 1);
+			}
+			br.close();
+		} catch (IOException ex) {
+			System.out.println("no such file");
+		}
+	}
+
 	public boolean archiveTransactions(String file) {
 		try {
 			FileWriter fileWriter = new FileWriter(file, true);
@@ -337,12 +1425,15 @@ public class Banker {
 			for (int i = 0; i < transactions.size(); i++) {
 				Transaction t = transactions.get(i);
 				String id = Integer.toString(t.getId());
-				String sender = Integer.toString(t.getSender().getAccNo());
-				String receiver = Integer.toString(t.getReceiver().getAccNo());
-				String amount = Integer.toString(t.getAmount());
-				String line = id + ", " + receiver + ", " + sender + ", " + amount + ", " + t.getHash();
-				bufferedWriter.write(line);
-				bufferedWriter.write("\n");
+				for (int leg = 0; leg < t.legCount(); leg++) {
+					String sender = Integer.toString(t.getSender(leg).getAccNo());
+					String receiver = Integer.toString(t.getReceiver(leg).getAccNo());
+					String amount = Integer.toString(t.getAmount(leg));
+					String line = id + ", " + receiver + ", " + sender + ", " + amount + ", " + t.getHash() + ", "
+							+ Long.toString(t.getTimestamp());
+					bufferedWriter.write(line);
+					bufferedWriter.write("\n");
+				}
 			}
 			bufferedWriter.close();
 			return true;
@@ -358,9 +1449,13 @@ public class Banker {
 			BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
 			for (int i = 100000; i < nextAccountNumber; i++) {
 				BankAccount a = accounts.get(i);
+				if (a == null) {
+					continue;
+				}
 				String accNo = Integer.toString(a.getAccNo());
 				String balance = Integer.toString(a.getBalance());
-				String line = accNo + ", " + a.getFirst() + ", " + a.getLast() + ", " + balance;
+				String opening = Integer.toString(a.getOpeningBalance());
+				String line = accNo + ", " + a.getFirst() + ", " + a.getLast() + ", " + balance + ", " + opening;
 				bufferedWriter.write(line);
 				bufferedWriter.write("\n");
 			}
@@ -379,11 +1474,51 @@ public class Banker {
 	 * @param accFile    the name of the accounts file
 	 */
 	public void recover(String ledgerFile, String accFile) {
+		recover(ledgerFile, accFile, false);
+	}
+
+	/**
+	 * Restores archived ledger and accounts files to the system. In lazy mode only
+	 * balances, the ledger and a posting index are restored, and account histories
+	 * are built on first access. Recovery into an off-heap ledger is always lazy.
+	 *
+	 * @param ledgerFile the name of the ledger file
+	 * @param accFile    the name of the accounts file
+	 * @param lazy       whether to build account histories lazily
+	 */
+	public void recover(String ledgerFile, String accFile, boolean lazy) {
+		recover(ledgerFile, accFile, lazy, false);
+	}
+
+	/**
+	 * Restores archived ledger and accounts files to the system, optionally
+	 * checking the restored balances against the ledger afterwards.
+	 *
+	 * @param ledgerFile the name of the ledger file
+	 * @param accFile    the name of the accounts file
+	 * @param lazy       whether to build account histories lazily
+	 * @param rebuild    whether to rebuild balances from the ledger
+	 */
+	public synchronized void recover(String ledgerFile, String accFile, boolean lazy, boolean rebuild) {
+		lazy = lazy || offHeapDirectory != null;
 		boolean ledgerRestored = false;
 		boolean transactionsRestored = true;
 		int latestAccount = 0;
+		boolean openingsMissing = false;
 		Map<Integer, BankAccount> restoredAccounts = new HashMap<Integer, BankAccount>();
-		List<Transaction> restoredLedger = new ArrayList<Transaction>();
+		List<Transaction> restoredLedger;
+		if (offHeapDirectory != null) {
+			restoredLedger = new MappedLedger(offHeapDirectory, restoredAccounts::get, CHECKPOINT_INTERVAL);
+		} else {
+			restoredLedger = new ArrayList<Transaction>();
+		}
+		PostingIndex restoredPostings = new PostingIndex();
+		PairIndex restoredPairs = offHeapDirectory == null ? new PairIndex() : null;
+		AmountIndex restoredAmounts = offHeapDirectory == null ? new AmountIndex() : null;
+		CheckpointIndex restoredCheckpoints = null;
+		if (offHeapDirectory == null) {
+			restoredCheckpoints = new CheckpointIndex(CHECKPOINT_INTERVAL);
+		}
 		try {
 			FileReader fr1 = new FileReader(accFile);
 			BufferedReader br1 = new BufferedReader(fr1);
@@ -393,6 +1528,14 @@ public class Banker {
 				int balance = Integer.parseInt(details[3]);
 				int accNo = Integer.parseInt(details[0]);
 				BankAccount newAccount = new BankAccount(accNo, details[1], details[2], balance);
+				if (details.length > 4) {
+					newAccount.setOpeningBalance(Integer.parseInt(details[4]));
+				} else {
+					openingsMissing = true;
+				}
+				if (lazy) {
+					newAccount.detachHistory();
+				}
 				restoredAccounts.put(accNo, newAccount);
 				latestAccount = accNo;
 			}
@@ -407,25 +1550,47 @@ public class Banker {
 				FileReader fr2 = new FileReader(ledgerFile);
 				BufferedReader br2 = new BufferedReader(fr2);
 				String line;
-				while ((line = br2.readLine()) != null) {
-					String[] details = line.split("\\s*,\\s*");
-					int id = Integer.parseInt(details[0]);
-					BankAccount sender = restoredAccounts.get(Integer.parseInt(details[2]));
-					BankAccount receiver = restoredAccounts.get(Integer.parseInt(details[1]));
-					if (sender == null || receiver == null) {
-						transactionsRestored = false;
-						break;
+				List<String[]> legs = new ArrayList<String[]>();
+				while (true) {
+					line = br2.readLine();
+					String[] details = line == null ? null : line.split("\\s*,\\s*");
+					if (legs.size() > 0 && (details == null || !details[0].equals(legs.get(0)[0]))) {
+						Transaction t = restoreTransaction(legs, restoredAccounts, restoredLedger);
+						if (t == null) {
+							transactionsRestored = false;
+							break;
+						}
+						if (restoredCheckpoints != null) {
+							checkpoint(restoredCheckpoints, t);
+						}
+						for (Map.Entry<Integer, long[]> entry : t.flows().entrySet()) {
+							restoredAccounts.get(entry.getKey()).addTurnover(t.getTimestamp(), entry.getValue()[0],
+									entry.getValue()[1]);
+						}
+						for (int leg = 0; leg < t.legCount(); leg++) {
+							BankAccount sender = t.getSender(leg);
+							BankAccount receiver = t.getReceiver(leg);
+							if (restoredPairs != null) {
+								restoredPairs.add(sender.getAccNo(), receiver.getAccNo(), t.getId());
+							}
+							if (restoredAmounts != null) {
+								restoredAmounts.add(t.getAmount(leg), t.getId());
+							}
+							if (lazy && offHeapDirectory == null) {
+								restoredPostings.add(sender.getAccNo(), t.getId());
+								restoredPostings.add(receiver.getAccNo(), t.getId());
+							} else if (!lazy) {
+								sender.recoverTransaction(t);
+								receiver.recoverTransaction(t);
+							}
+						}
+						restoredLedger.add(t);
+						legs.clear();
 					}
-					int amount = Integer.parseInt(details[3]);
-					String prevHash = null;
-					if (id != 1) {
-						prevHash = restoredLedger.get(id - 2).getHash();
+					if (details == null) {
+						break;
 					}
-					Transaction t = new Transaction(id, sender, receiver, amount, prevHash);
-					t.setHash(details[4]);
-					restoredAccounts.get(sender.getAccNo()).recoverTransaction(t);
-					restoredAccounts.get(receiver.getAccNo()).recoverTransaction(t);
-					restoredLedger.add(t);
+					legs.add(details);
 				}
 				br2.close();
 			} catch (IOException ex) {
@@ -434,24 +1599,157 @@ public class Banker {
 		}
 		boolean verified = Transaction.verify(restoredLedger);
 		if (ledgerRestored && transactionsRestored && verified) {
+			if (transactions instanceof MappedLedger) {
+				((MappedLedger) transactions).close();
+			}
 			accounts = restoredAccounts;
 			transactions = restoredLedger;
+			if (restoredLedger instanceof MappedLedger) {
+				((MappedLedger) restoredLedger).setAccounts(accNo -> accounts.get(accNo));
+			}
+			postings = restoredPostings;
+			pairs = restoredPairs;
+			amounts = restoredAmounts;
+			checkpoints = restoredCheckpoints;
+			historyCache.clear();
+			lazyHistory = lazy;
 			nextAccountNumber = latestAccount + 1;
 			nextTransactionNumber = transactions.size() + 1;
+			openingsDerived = openingsMissing;
+			if (openingsMissing) {
+				deriveOpeningBalances();
+			}
+			names = new NameIndex();
+			for (BankAccount account : accounts.values()) {
+				names.add(account.getAccNo(), account.getFirst(), account.getLast());
+			}
+			recoverOrders(accFile + ".orders");
+			if (netting != null && netting.pending() > 0) {
+				int discarded = netting.discard(clock.millis());
+				System.out.println("discarded " + Integer.toString(discarded) + " queued payments");
+			}
+			if (feed != null) {
+				feed.recovered(transactions.size(), accounts.size());
+			}
 			System.out.println("success");
+			if (rebuild && openingsMissing) {
+				System.out.println("balances not checked - opening balances were derived from the ledger");
+			} else if (rebuild) {
+				rebuild();
+			}
+			return;
 		} else if (!verified) {
 			System.out.println("invalid ledger");
 		}
+		if (restoredLedger instanceof MappedLedger) {
+			((MappedLedger) restoredLedger).close();
+		}
+		return;
+	}
+
+	/**
+	 * Rebuilds one transaction from its archived ledger lines, one line per leg.
+	 * Returns null if an account is missing.
+	 *
+	 * @param legs     the split ledger lines of the transaction
+	 * @param accounts the restored accounts
+	 * @param ledger   the transactions restored so far
+	 * @return the restored transaction
+	 */
+	private Transaction restoreTransaction(List<String[]> legs, Map<Integer, BankAccount> accounts,
+			List<Transaction> ledger) {
+		int id = Integer.parseInt(legs.get(0)[0]);
+		BankAccount[] senders = new BankAccount[legs.size()];
+		BankAccount[] receivers = new BankAccount[legs.size()];
+		int[] amounts = new int[legs.size()];
+		for (int i = 0; i < legs.size(); i++) {
+			String[] details = legs.get(i);
+			senders[i] = accounts.get(Integer.parseInt(details[2]));
+			receivers[i] = accounts.get(Integer.parseInt(details[1]));
+			if (senders[i] == null || receivers[i] == null) {
+				return null;
+			}
+			amounts[i] = Integer.parseInt(details[3]);
+		}
+		String prevHash = null;
+		if (id != 1) {
+			prevHash = ledger.get(id - 2).getHash();
+		}
+		Transaction restored = new Transaction(id, senders, receivers, amounts, prevHash, legs.get(0)[4]);
+		if (legs.get(0).length > 5) {
+			restored.setTimestamp(Long.parseLong(legs.get(0)[5]));
+		}
+		return restored;
+	}
+
+	/**
+	 * Sets the opening balance of every account to its balance minus its net flow
+	 * in the ledger. Used for account files archived without opening balances.
+	 */
+	private void deriveOpeningBalances() {
+		int firstAccount = Collections.min(accounts.keySet());
+		long[] deltas = ledgerDeltas(firstAccount);
+		for (BankAccount account : accounts.values()) {
+			account.setOpeningBalance((int) (account.getBalance() - deltas[account.getAccNo() - firstAccount]));
+		}
+	}
+
+	/**
+	 * Returns the net change in balance of every account over the ledger, indexed
+	 * by account number - firstAccount. Account numbers need not be contiguous.
+	 *
+	 * @param firstAccount the lowest account number
+	 * @return the net change per account
+	 */
+	private long[] ledgerDeltas(int firstAccount) {
+		int accountCount = Collections.max(accounts.keySet()) - firstAccount + 1;
+		return BalanceRebuilder.deltas(transactions, firstAccount, accountCount,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Recomputes every balance from the opening balances and the ledger and
+	 * displays the accounts whose stored balance disagrees. If the opening balances
+	 * were derived from the ledger on recovery, only changes since the recovery
+	 * are checked, and the output says so.
+	 */
+	public synchronized void rebuild() {
+		if (accounts.isEmpty()) {
+			System.out.println("no accounts");
+			return;
+		}
+		if (openingsDerived) {
+			System.out.println(
+					"opening balances were derived from the ledger - only changes since recovery are checked");
+		}
+		List<Integer> accNos = new ArrayList<Integer>(accounts.keySet());
+		Collections.sort(accNos);
+		int firstAccount = accNos.get(0);
+		long[] deltas = ledgerDeltas(firstAccount);
+		int mismatches = 0;
+		for (int accNo : accNos) {
+			BankAccount account = accounts.get(accNo);
+			long rebuilt = account.getOpeningBalance() + deltas[accNo - firstAccount];
+			if (rebuilt != account.getBalance()) {
+				mismatches++;
+				System.out.println(Integer.toString(accNo) + " - stored $" + Integer.toString(account.getBalance())
+						+ " - ledger $" + Long.toString(rebuilt));
+			}
+		}
+		if (mismatches == 0) {
+			System.out.println("balances match");
+		}
 		return;
 	}
 
 	/**
-	 * Transfers all funds into the destination account.
+	 * Transfers all funds into the destination account. All transfers are recorded
+	 * as a single multi-leg transaction.
 	 *
 	 * @param dest   the account number for the destination account
 	 * @param others the account numbers for the accounts to be merged
 	 */
-	public void merge(int dest, int[] others) {
+	public synchronized void merge(int dest, int[] others) {
 		BankAccount d = accounts.get(dest);
 		if (d == null) {
 			System.out.println("no such account");
@@ -468,20 +1766,18 @@ public class Banker {
 				return;
 			}
 		}
-		for (int a : others) {
-			BankAccount s = accounts.get(a);
-			Transaction newTransaction = new Transaction(nextTransactionNumber, s, d, s.getBalance(),
-					nextTransactionNumber == 1 ? null : transactions.get(nextTransactionNumber - 2).getHash());
-			boolean senderOk = s.processTransaction(newTransaction);
-			boolean receiverOk = false;
-			if (senderOk) {
-				receiverOk = d.processTransaction(newTransaction);
-			} else {
-				return;
+		settleWindow();
+		// accounts with nothing to move take no leg, as legs must be positive
+		int[] senders = Arrays.stream(others).distinct().filter(a -> accounts.get(a).getBalance() > 0).toArray();
+		if (senders.length > 0) {
+			int[] receivers = new int[senders.length];
+			int[] amounts = new int[senders.length];
+			for (int i = 0; i < senders.length; i++) {
+				receivers[i] = dest;
+				amounts[i] = accounts.get(senders[i]).getBalance();
 			}
-			if (senderOk && receiverOk) {
-				transactions.add(newTransaction);
-				nextTransactionNumber++;
+			if (!applyBatch(senders, receivers, amounts)) {
+				return;
 			}
 		}
 		System.out.println("success");
@@ -492,14 +1788,16 @@ public class Banker {
 	/**
 	 * Displays the lowest balance in the system.
 	 */
-	public void min() {
+	public synchronized void min() {
 		if (nextAccountNumber == 100000) {
 			System.out.println("no accounts");
 			return;
 		}
 		List<BankAccount> accs = new ArrayList<BankAccount>();
 		for (int i = 100000; i < nextAccountNumber; i++) {
-			accs.add(accounts.get(i));
+			if (accounts.containsKey(i)) {
+				accs.add(accounts.get(i));
+			}
 		}
 		System.out.println("$" + Integer.toString(BankAccount.findMin(accs)));
 		return;
@@ -508,14 +1806,16 @@ public class Banker {
 	/**
 	 * Displays the highest balance in the system.
 	 */
-	public void max() {
+	public synchronized void max() {
 		if (nextAccountNumber == 100000) {
 			System.out.println("no accounts");
 			return;
 		}
 		List<BankAccount> accs = new ArrayList<BankAccount>();
 		for (int i = 100000; i < nextAccountNumber; i++) {
-			accs.add(accounts.get(i));
+			if (accounts.containsKey(i)) {
+				accs.add(accounts.get(i));
+			}
 		}
 		System.out.println("$" + Integer.toString(BankAccount.findMax(accs)));
 		return;
@@ -524,14 +1824,16 @@ public class Banker {
 	/**
 	 * Displays the average balance in the system (rounded down).
 	 */
-	public void mean() {
+	public synchronized void mean() {
 		if (nextAccountNumber == 100000) {
 			System.out.println("no accounts");
 			return;
 		}
 		List<BankAccount> accs = new ArrayList<BankAccount>();
 		for (int i = 100000; i < nextAccountNumber; i++) {
-			accs.add(accounts.get(i));
+			if (accounts.containsKey(i)) {
+				accs.add(accounts.get(i));
+			}
 		}
 		System.out.println("$" + Integer.toString(BankAccount.mean(accs)));
 		return;
@@ -540,14 +1842,16 @@ public class Banker {
 	/**
 	 * Displays the median balance in the system.
 	 */
-	public void median() {
+	public synchronized void median() {
 		if (nextAccountNumber == 100000) {
 			System.out.println("no accounts");
 			return;
 		}
 		List<BankAccount> accs = new ArrayList<BankAccount>();
 		for (int i = 100000; i < nextAccountNumber; i++) {
-			accs.add(accounts.get(i));
+			if (accounts.containsKey(i)) {
+				accs.add(accounts.get(i));
+			}
 		}
 		System.out.println("$" + Integer.toString(BankAccount.median(accs)));
 		return;
@@ -556,14 +1860,16 @@ public class Banker {
 	/**
 	 * Displays the total balance for all accounts.
 	 */
-	public void total() {
+	public synchronized void total() {
 		if (nextAccountNumber == 100000) {
 			System.out.println("no accounts");
 			return;
 		}
 		List<BankAccount> accs = new ArrayList<BankAccount>();
 		for (int i = 100000; i < nextAccountNumber; i++) {
-			accs.add(accounts.get(i));
+			if (accounts.containsKey(i)) {
+				accs.add(accounts.get(i));
+			}
 		}
 		System.out.println("$" + Integer.toString(BankAccount.totalBalance(accs)));
 		return;
@@ -571,100 +1877,322 @@ public class Banker {
 
 	public void runSystem() {
 		Scanner keyboard = new Scanner(System.in);
+		startTicker();
 		while (!exited) {
-			System.out.print("$ ");
+			prompt("$ ");
 			String command = "";
 			if (keyboard.hasNextLine()) {
 				command = keyboard.nextLine();
 
 			}
-			String[] commandArr = command.split("[\\s']");
-			String keyword = commandArr[0];
-			switch (keyword) {
-				case "EXIT":
-					exit();
-					break;
-				case "COMMANDS":
-					commands();
-					break;
-				case "LIST":
-					if (commandArr[1].equals("ACCOUNTS")) {
-						listAccounts();
-					} else if (commandArr[1].equals("TRANSACTIONS")) {
-						listTransactions();
-					}
+			if (recorder == null) {
+				execute(command);
+			} else {
+				record(command);
+			}
+			prompt("\n");
+		}
+		if (recorder != null) {
+			recorder.close();
+		}
+		if (feed != null) {
+			feed.close();
+		}
+		if (auditor != null) {
+			auditor.stop();
+		}
+		if (transactions instanceof MappedLedger) {
+			((MappedLedger) transactions).close();
+		}
+		keyboard.close();
+	}
+
+	/**
+	 * Starts a daemon thread that pays due standing orders and settles ended
+	 * netting windows every tick, so they are paid on time while no command is
+	 * typed.
+	 */
+	private void startTicker() {
+		Thread ticker = new Thread(() -> {
+			while (!exited) {
+				try {
+					Thread.sleep(TICK_MILLIS);
+				} catch (InterruptedException ex) {
 					break;
-				case "BALANCE":
+				}
+				if (recorder == null) {
+					tick();
+				} else {
+					record(null);
+				}
+			}
+		}, "banker-ticker");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * Settles the netting window if it has ended and makes the standing order
+	 * payments that have become due.
+	 *
+	 * @return true if anything was settled or paid
+	 */
+	public synchronized boolean tick() {
+		boolean settled = settleIfDue();
+		return runStandingOrders() || settled;
+	}
+
+	/**
+	 * Displays part of the prompt, outside any recorded tick's output.
+	 */
+	private void prompt(String text) {
+		if (recorder == null) {
+			System.out.print(text);
+			return;
+		}
+		synchronized (recorder) {
+			System.out.print(text);
+		}
+	}
+
+	/**
+	 * Runs a command, or a tick if the command is null, and records it to the
+	 * trace. The clock is held at the time the command started while it runs, and
+	 * that time is recorded, so a replay stamps its transactions with the same
+	 * times. A tick that did nothing is left out of the trace.
+	 *
+	 * @param command the command line, or null for a tick
+	 */
+	private void record(String command) {
+		synchronized (recorder) {
+			Clock live = clock;
+			long millis = live.millis();
+			clock = Clock.fixed(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+			recorder.begin();
+			boolean ran = true;
+			try {
+				if (command == null) {
+					ran = tick();
+				} else {
+					execute(command);
+				}
+			} finally {
+				clock = live;
+				if (ran) {
+					recorder.end(command, millis);
+				} else {
+					recorder.discard();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a single command line.
+	 *
+	 * @param command the command line
+	 */
+	public void execute(String command) {
+		String[] commandArr = command.split("[\\s']");
+		String keyword = commandArr[0];
+		settleIfDue();
+		runStandingOrders();
+		switch (keyword) {
+			case "EXIT":
+				exit();
+				break;
+			case "COMMANDS":
+				commands();
+				break;
+			case "LIST":
+				if (commandArr[1].equals("ACCOUNTS")) {
+					listAccounts();
+				} else if (commandArr[1].equals("TRANSACTIONS")) {
+					listTransactions();
+				}
+				break;
+			case "BALANCE":
+				if (commandArr.length == 4 && commandArr[2].equals("AT")) {
+					balanceAt(Integer.parseInt(commandArr[1]), Integer.parseInt(commandArr[3]));
+				} else {
 					balance(Integer.parseInt(commandArr[1]));
-					break;
-				case "DETAILS":
-					details(Integer.parseInt(commandArr[1]));
-					break;
-				case "HISTORY":
-					history(Integer.parseInt(commandArr[1]));
-					break;
-				case "OUTGOING":
-					outgoing(Integer.parseInt(commandArr[1]));
-					break;
-				case "INCOMING":
-					incoming(Integer.parseInt(commandArr[1]));
-					break;
-				case "CREATE":
-					createAccount(commandArr[1], commandArr[2],
-							commandArr.length < 4 ? DEFAULT : Integer.parseInt(commandArr[3]));
-					break;
-				case "RENAME":
-					rename(Integer.parseInt(commandArr[1]), commandArr[2], commandArr[3]);
-					break;
-				case "PAY":
-					pay(Integer.parseInt(commandArr[1]), Integer.parseInt(commandArr[2]),
-							Integer.parseInt(commandArr[3]));
-					break;
-				case "TRANSACTION":
-					transaction(Integer.parseInt(commandArr[1]));
-					break;
-				case "CANCEL":
-					cancel(Integer.parseInt(commandArr[1]));
-					break;
-				case "ARCHIVE":
-					archive(commandArr[1], commandArr[2]);
-					break;
-				case "RECOVER":
-					recover(commandArr[1], commandArr[2]);
-					break;
-				case "MERGE":
-					int[] others = new int[commandArr.length - 2];
-					for (int i = 2; i < commandArr.length; i++) {
-						others[i - 2] = Integer.parseInt(commandArr[i]);
-					}
-					merge(Integer.parseInt(commandArr[1]), others);
-					break;
-				case "MAX":
-					max();
-					break;
-				case "MIN":
-					min();
-					break;
-				case "MEAN":
-					mean();
-					break;
-				case "MEDIAN":
-					median();
-					break;
-				case "TOTAL":
-					total();
-					break;
-				default:
+				}
+				break;
+			case "DETAILS":
+				details(Integer.parseInt(commandArr[1]));
+				break;
+			case "HISTORY":
+				history(Integer.parseInt(commandArr[1]));
+				break;
+			case "OUTGOING":
+				outgoing(Integer.parseInt(commandArr[1]));
+				break;
+			case "INCOMING":
+				incoming(Integer.parseInt(commandArr[1]));
+				break;
+			case "TURNOVER":
+				turnover(Integer.parseInt(commandArr[1]), Long.parseLong(commandArr[2]), Long.parseLong(commandArr[3]));
+				break;
+			case "CREATE":
+				createAccount(commandArr[1], commandArr[2],
+						commandArr.length < 4 ? DEFAULT : Integer.parseInt(commandArr[3]));
+				break;
+			case "BULKLOAD":
+				createBulk(commandArr[1]);
+				break;
+			case "FIND":
+				int words = commandArr.length - 1;
+				if (words > 1 && commandArr[words].matches("\\d+")) {
+					words--;
+				}
+				find(String.join(" ", Arrays.copyOfRange(commandArr, 1, words + 1)),
+						words == commandArr.length - 1 ? 1 : Integer.parseInt(commandArr[words + 1]));
+				break;
+			case "RENAME":
+				rename(Integer.parseInt(commandArr[1]), commandArr[2], commandArr[3]);
+				break;
+			case "PAY":
+				pay(Integer.parseInt(commandArr[1]), Integer.parseInt(commandArr[2]),
+						Integer.parseInt(commandArr[3]));
+				break;
+			case "TRANSACTION":
+				transaction(Integer.parseInt(commandArr[1]));
+				break;
+			case "BETWEEN":
+				between(Integer.parseInt(commandArr[1]), Integer.parseInt(commandArr[2]),
+						commandArr.length < 4 ? null : commandArr[3]);
+				break;
+			case "RANGE":
+				if (commandArr[1].equals("COUNT")) {
+					rangeCount(Integer.parseInt(commandArr[2]), Integer.parseInt(commandArr[3]));
+				} else {
+					range(Integer.parseInt(commandArr[1]), Integer.parseInt(commandArr[2]),
+							commandArr.length < 4 ? 1 : Integer.parseInt(commandArr[3]));
+				}
+				break;
+			case "CANCEL":
+				cancel(Integer.parseInt(commandArr[1]));
+				break;
+			case "ARCHIVE":
+				archive(commandArr[1], commandArr[2]);
+				break;
+			case "RECOVER":
+				boolean lazy = false;
+				boolean rebuild = false;
+				for (int i = 3; i < commandArr.length; i++) {
+					lazy = lazy || commandArr[i].equals("LAZY");
+					rebuild = rebuild || commandArr[i].equals("REBUILD");
+				}
+				recover(commandArr[1], commandArr[2], lazy, rebuild);
+				break;
+			case "REBUILD":
+				rebuild();
+				break;
+			case "AUDIT":
+				if (commandArr.length == 1) {
+					audit();
+				} else if (commandArr[1].equals("STOP")) {
+					auditStop();
+				} else if (commandArr[1].equals("START") && commandArr.length > 2) {
+					auditStart(Integer.parseInt(commandArr[2]), commandArr.length > 3 ? commandArr[3] : null);
+				} else {
+					System.out.println("Invalid command");
+				}
+				break;
+			case "MERGE":
+				int[] others = new int[commandArr.length - 2];
+				for (int i = 2; i < commandArr.length; i++) {
+					others[i - 2] = Integer.parseInt(commandArr[i]);
+				}
+				merge(Integer.parseInt(commandArr[1]), others);
+				break;
+			case "BATCH":
+				if (commandArr.length < 4 || (commandArr.length - 1) % 3 != 0) {
 					System.out.println("Invalid command");
 					break;
-			}
-			System.out.print("\n");
+				}
+				int legs = (commandArr.length - 1) / 3;
+				int[] senders = new int[legs];
+				int[] receivers = new int[legs];
+				int[] amounts = new int[legs];
+				for (int i = 0; i < legs; i++) {
+					senders[i] = Integer.parseInt(commandArr[3 * i + 1]);
+					receivers[i] = Integer.parseInt(commandArr[3 * i + 2]);
+					amounts[i] = Integer.parseInt(commandArr[3 * i + 3]);
+				}
+				batch(senders, receivers, amounts);
+				break;
+			case "NETTING":
+				if (commandArr[1].equals("OFF")) {
+					nettingOff();
+				} else {
+					netting(Long.parseLong(commandArr[1]));
+				}
+				break;
+			case "SETTLE":
+				settle();
+				break;
+			case "REQUEST":
+				request(Integer.parseInt(commandArr[1]));
+				break;
+			case "HOT":
+				if (commandArr[1].equals("AUTO")) {
+					hotAuto(Integer.parseInt(commandArr[2]));
+				} else {
+					hot(Integer.parseInt(commandArr[1]));
+				}
+				break;
+			case "SCHEDULE":
+				schedule(Integer.parseInt(commandArr[1]), Integer.parseInt(commandArr[2]),
+						Integer.parseInt(commandArr[3]), Integer.parseInt(commandArr[4]));
+				break;
+			case "UNSCHEDULE":
+				unschedule(Integer.parseInt(commandArr[1]));
+				break;
+			case "MAX":
+				max();
+				break;
+			case "MIN":
+				min();
+				break;
+			case "MEAN":
+				mean();
+				break;
+			case "MEDIAN":
+				median();
+				break;
+			case "TOTAL":
+				total();
+				break;
+			default:
+				System.out.println("Invalid command");
+				break;
 		}
-		keyboard.close();
 	}
 
+	/**
+	 * Starts the administrative system. "--off-heap <directory>" keeps the ledger
+	 * in memory-mapped files, "--trace <file>" records every command for
+	 * TraceReplayer and "--feed <file> [<port>]" publishes a change feed.
+	 *
+	 * @param args the command line options
+	 */
 	public static void main(String[] args) {
 		Banker bankerOS = new Banker();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--off-heap") && i + 1 < args.length) {
+				bankerOS.useOffHeapLedger(args[++i]);
+			} else if (args[i].equals("--trace") && i + 1 < args.length) {
+				bankerOS.recordTrace(args[++i]);
+			} else if (args[i].equals("--feed") && i + 1 < args.length) {
+				String file = args[++i];
+				int port = 0;
+				if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+					port = Integer.parseInt(args[++i]);
+				}
+				bankerOS.publishFeed(file, port);
+			}
+		}
 		bankerOS.runSystem();
 	}
 
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BulkLoader {
+
+	private String[] firsts;
+	private String[] lasts;
+	private int[] balances;
+	private int malformedRow;
+
+	/**
+	 * Parses a CSV file of accounts, one "first, last[, balance]" row per account,
+	 * splitting the rows between threads. Rows without a balance get the default
+	 * balance.
+	 *
+	 * @param file           the name of the CSV file
+	 * @param defaultBalance the balance for rows without one
+	 * @param threads        the number of threads to use
+	 * @throws IOException if the file cannot be read
+	 */
+	public BulkLoader(String file, final int defaultBalance, int threads) throws IOException {
+		final List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+		int rows = lines.size();
+		while (rows > 0 && lines.get(rows - 1).trim().isEmpty()) {
+			rows--;
+		}
+		this.firsts = new String[rows];
+		this.lasts = new String[rows];
+		this.balances = new int[rows];
+		this.malformedRow = 0;
+		threads = Math.max(1, Math.min(threads, rows / 10000 + 1));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> parts = new ArrayList<Future<Integer>>();
+		int chunk = (rows + threads - 1) / threads;
+		for (int from = 0; from < rows; from += chunk) {
+			final int start = from;
+			final int end = Math.min(rows, from + chunk);
+			parts.add(pool.submit(() -> parse(lines, start, end, defaultBalance)));
+		}
+		try {
+			for (Future<Integer> part : parts) {
+				int bad = part.get();
+				if (bad != 0 && (malformedRow == 0 || bad < malformedRow)) {
+					malformedRow = bad;
+				}
+			}
+		} catch (InterruptedException | ExecutionException ex) {
+			throw new IllegalStateException("bulk load failed", ex);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the number of the first malformed row, counting from 1. Returns 0 if
+	 * every row is valid.
+	 *
+	 * @return the first malformed row
+	 */
+	public int getMalformedRow() {
+		return malformedRow;
+	}
+
+	public int size() {
+		return balances.length;
+	}
+
+	public String getFirst(int row) {
+		return firsts[row];
+	}
+
+	public String getLast(int row) {
+		return lasts[row];
+	}
+
+	public int getBalance(int row) {
+		return balances[row];
+	}
+
+	private int parse(List<String> lines, int from, int to, int defaultBalance) {
+		for (int i = from; i < to; i++) {
+			String[] details = lines.get(i).trim().split("\\s*,\\s*");
+			if (details.length < 2 || details.length > 3 || !isName(details[0]) || !isName(details[1])) {
+				return i + 1;
+			}
+			int balance = defaultBalance;
+			if (details.length == 3) {
+				try {
+					balance = Integer.parseInt(details[2]);
+				} catch (NumberFormatException ex) {
+					return i + 1;
+				}
+				if (balance < 0) {
+					return i + 1;
+				}
+			}
+			firsts[i] = details[0];
+			lasts[i] = details[1];
+			balances[i] = balance;
+		}
+		return 0;
+	}
+
+	private static boolean isName(String name) {
+		if (name.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.isWhitespace(name.charAt(i)) || name.charAt(i) == '\'') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
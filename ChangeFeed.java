@@ -0,0 +1,424 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeFeed {
+
+	public static final int SUBSCRIBER_BUFFER = 10000;
+	public static final int FLUSH_MILLIS = 100;
+	public static final int COPY_BUFFER = 65536;
+	public static final int INDEX_INTERVAL = 1024;
+
+	private String file;
+	private BufferedWriter out;
+	private long size;
+	private long sequence;
+	private long firstOffset;
+	private int firstTransaction;
+	private long[] transactionEnds;
+	private int lastTransaction;
+	private List<Subscriber> subscribers;
+	private ServerSocket server;
+	private volatile boolean closed;
+
+	/**
+	 * Constructor for the ChangeFeed object. Every committed change is appended as
+	 * one line to the feed file, and pushed to subscribers connected to the port on
+	 * the loopback interface. A subscriber sends "FROM <id>" to receive every event
+	 * since transaction id - 1 of the current ledger was committed, or any other
+	 * line to receive only new events. A subscriber asking for a transaction whose
+	 * event is not in the file gets "ERROR no such transaction in feed" instead.
+	 *
+	 * An existing feed file is appended to, and its sequence numbers continue from
+	 * its last event; a torn last line left by a crash is dropped first. Only the
+	 * end of every INDEX_INTERVAL-th transaction is kept in memory, and a
+	 * subscriber's starting point is found by reading forward from the nearest one.
+	 *
+	 * @param file the name of the feed file
+	 * @param port the port to accept subscribers on, 0 for the file only
+	 * @throws IOException if the file cannot be opened or the port is taken
+	 */
+	public ChangeFeed(String file, int port) throws IOException {
+		this.file = file;
+		this.sequence = restoreSequence(file);
+		this.out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+		this.size = new File(file).length();
+		this.firstOffset = size;
+		this.firstTransaction = 0;
+		this.transactionEnds = new long[16];
+		this.lastTransaction = 0;
+		this.subscribers = new CopyOnWriteArrayList<Subscriber>();
+		this.closed = false;
+		if (port != 0) {
+			server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			daemon(this::accept, "feed-accept");
+		}
+		daemon(this::flushPeriodically, "feed-flush");
+	}
+
+	/**
+	 * Publishes a committed ledger entry as "TX <id> <hash> <sender> <receiver>
+	 * <amount> …" with one sender, receiver and amount per leg.
+	 *
+	 * @param transaction the transaction
+	 */
+	public synchronized void transaction(Transaction transaction) {
+		StringBuilder event = new StringBuilder("TX ");
+		event.append(transaction.getId()).append(' ').append(transaction.getHash());
+		for (int leg = 0; leg < transaction.legCount(); leg++) {
+			event.append(' ').append(transaction.getSender(leg).getAccNo());
+			event.append(' ').append(transaction.getReceiver(leg).getAccNo());
+			event.append(' ').append(transaction.getAmount(leg));
+		}
+		publish(event.toString());
+		int id = transaction.getId();
+		if ((id - firstTransaction) % INDEX_INTERVAL == 0) {
+			int mark = (id - firstTransaction) / INDEX_INTERVAL;
+			if (mark >= transactionEnds.length) {
+				transactionEnds = Arrays.copyOf(transactionEnds, transactionEnds.length * 2);
+			}
+			transactionEnds[mark] = size;
+		}
+		lastTransaction = id;
+	}
+
+	/**
+	 * Publishes a new account as "ACCOUNT <accno> <first> <last> <balance>".
+	 *
+	 * @param account the account
+	 */
+	public synchronized void account(BankAccount account) {
+		publish("ACCOUNT " + Integer.toString(account.getAccNo()) + " " + account.getFirst() + " "
+				+ account.getLast() + " " + Integer.toString(account.getBalance()));
+	}
+
+	/**
+	 * Publishes a name change as "RENAME <accno> <first> <last>".
+	 *
+	 * @param accNo the account number
+	 * @param first the new first name
+	 * @param last  the new surname
+	 */
+	public synchronized void rename(int accNo, String first, String last) {
+		publish("RENAME " + Integer.toString(accNo) + " " + first + " " + last);
+	}
+
+	/**
+	 * Publishes "RECOVER <transactions> <accounts>" after the whole state was
+	 * replaced from an archive. Transactions committed after it are indexed from
+	 * this event on; earlier ones are looked for in the file before it.
+	 *
+	 * @param transactions the number of transactions recovered
+	 * @param accounts     the number of accounts recovered
+	 */
+	public synchronized void recovered(int transactions, int accounts) {
+		publish("RECOVER " + Integer.toString(transactions) + " " + Integer.toString(accounts));
+		firstOffset = size;
+		firstTransaction = transactions;
+		transactionEnds = new long[16];
+		lastTransaction = transactions;
+	}
+
+	/**
+	 * Stops accepting subscribers, disconnects the current ones and closes the
+	 * file.
+	 */
+	public synchronized void close() {
+		closed = true;
+		try {
+			out.close();
+			if (server != null) {
+				server.close();
+			}
+		} catch (IOException ex) {
+			System.out.println("feed close failed");
+		}
+	}
+
+	private void publish(String event) {
+		if (closed) {
+			return;
+		}
+		sequence++;
+		String line = Long.toString(sequence) + " " + event + "\n";
+		try {
+			out.write(line);
+		} catch (IOException ex) {
+			System.out.println("feed write failed");
+			return;
+		}
+		size += line.getBytes(StandardCharsets.UTF_8).length;
+		Event published = new Event(line, size);
+		for (Subscriber subscriber : subscribers) {
+			if (!subscriber.lagging && !subscriber.queue.offer(published)) {
+				subscriber.lagging = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the file offset a subscriber resuming from a transaction starts at,
+	 * which is the end of the event of the transaction before it, or -1 if that
+	 * event is not in the file. Resuming right after the last RECOVER or restart
+	 * starts at its event. Earlier transactions are looked for in the part of the
+	 * file written before it, taking the latest event for the ID; resuming from the
+	 * first transaction then starts at the latest event of transaction 1. The offsets are taken under the lock and
+	 * the file is read after releasing it, so a resuming subscriber never holds up
+	 * the publisher.
+	 */
+	private long offsetOf(int fromId) throws IOException {
+		int previous = Math.max(0, fromId - 1);
+		long from;
+		long to;
+		synchronized (this) {
+			if (previous > lastTransaction) {
+				return size;
+			}
+			if (previous == firstTransaction) {
+				return firstOffset;
+			}
+			out.flush();
+			if (previous > firstTransaction) {
+				int mark = (previous - firstTransaction - 1) / INDEX_INTERVAL;
+				from = mark == 0 ? firstOffset : transactionEnds[mark];
+				to = size;
+			} else {
+				from = 0;
+				to = firstOffset;
+			}
+		}
+		if (previous > firstTransaction) {
+			return find("TX " + Integer.toString(previous) + " ", from, to, false, false);
+		} else if (previous == 0) {
+			return find("TX 1 ", from, to, true, true);
+		}
+		return find("TX " + Integer.toString(previous) + " ", from, to, true, false);
+	}
+
+	/**
+	 * Returns the end, or the start, of the first or the latest event starting with
+	 * a prefix between two offsets of the file, or -1 if there is none.
+	 */
+	private long find(String wanted, long from, long to, boolean latest, boolean start) throws IOException {
+		long found = -1;
+		long offset = from;
+		try (RandomAccessFile feed = new RandomAccessFile(file, "r")) {
+			feed.seek(offset);
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					Channels.newInputStream(feed.getChannel()), StandardCharsets.UTF_8), COPY_BUFFER);
+			String line;
+			while (offset < to && (line = in.readLine()) != null) {
+				long lineStart = offset;
+				offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+				if (line.startsWith(wanted, line.indexOf(' ') + 1)) {
+					found = start ? lineStart : offset;
+					if (!latest) {
+						break;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Drops a torn last line left by a crash from an existing feed file and returns
+	 * the sequence number of its last event, or 0 for a new or empty file.
+	 */
+	private static long restoreSequence(String file) throws IOException {
+		try (RandomAccessFile feed = new RandomAccessFile(file, "rw")) {
+			long end = lastNewline(feed, feed.length()) + 1;
+			feed.setLength(end);
+			if (end == 0) {
+				return 0;
+			}
+			long start = lastNewline(feed, end - 1) + 1;
+			byte[] line = new byte[(int) Math.min(end - 1 - start, 20)];
+			feed.seek(start);
+			feed.readFully(line);
+			String last = new String(line, StandardCharsets.UTF_8);
+			try {
+				return Long.parseLong(last.indexOf(' ') < 0 ? last : last.substring(0, last.indexOf(' ')));
+			} catch (NumberFormatException ex) {
+				throw new IOException("malformed feed file " + file);
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the last newline before a position of a file, or -1
+	 * if there is none.
+	 */
+	private static long lastNewline(RandomAccessFile feed, long before) throws IOException {
+		byte[] buffer = new byte[COPY_BUFFER];
+		long position = before;
+		while (position > 0) {
+			int length = (int) Math.min(buffer.length, position);
+			position -= length;
+			feed.seek(position);
+			feed.readFully(buffer, 0, length);
+			for (int i = length - 1; i >= 0; i--) {
+				if (buffer[i] == '\n') {
+					return position + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Switches a subscriber to live events and returns the end of the file it has
+	 * to catch up to first.
+	 */
+	private synchronized long attach(Subscriber subscriber) throws IOException {
+		out.flush();
+		subscriber.queue.clear();
+		subscriber.lagging = false;
+		if (!subscribers.contains(subscriber)) {
+			subscribers.add(subscriber);
+		}
+		return size;
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = server.accept();
+				Subscriber subscriber = new Subscriber(socket);
+				daemon(subscriber::run, "feed-subscriber");
+			} catch (IOException ex) {
+				return;
+			}
+		}
+	}
+
+	private void flushPeriodically() {
+		while (!closed) {
+			try {
+				Thread.sleep(FLUSH_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			synchronized (this) {
+				try {
+					if (!closed) {
+						out.flush();
+					}
+				} catch (IOException ex) {
+					System.out.println("feed write failed");
+				}
+			}
+		}
+	}
+
+	private static void daemon(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static class Event {
+		private final String line;
+		private final long end;
+
+		private Event(String line, long end) {
+			this.line = line;
+			this.end = end;
+		}
+	}
+
+	private class Subscriber {
+		private Socket socket;
+		private ArrayBlockingQueue<Event> queue;
+		private volatile boolean lagging;
+		private long position;
+
+		private Subscriber(Socket socket) {
+			this.socket = socket;
+			this.queue = new ArrayBlockingQueue<Event>(SUBSCRIBER_BUFFER);
+			this.lagging = true;
+		}
+
+		/**
+		 * Sends the events from the file until the subscriber has caught up, then
+		 * the live events. A subscriber that falls a full buffer behind is dropped
+		 * from the live events and catches up from the file again, so it never holds
+		 * up the publisher.
+		 */
+		private void run() {
+			try {
+				BufferedReader in = new BufferedReader(
+						new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				String request = in.readLine();
+				String[] requestArr = request == null ? new String[0] : request.trim().split("\\s+");
+				OutputStream client = socket.getOutputStream();
+				if (requestArr.length == 2 && requestArr[0].equals("FROM")) {
+					position = offsetOf(Integer.parseInt(requestArr[1]));
+					if (position < 0) {
+						client.write("ERROR no such transaction in feed\n".getBytes(StandardCharsets.UTF_8));
+						client.flush();
+						return;
+					}
+				} else {
+					position = attach(this);
+				}
+				while (!closed) {
+					if (lagging) {
+						long end = attach(this);
+						copy(position, end, client);
+						position = end;
+					}
+					Event event = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+					while (event != null) {
+						client.write(event.line.getBytes(StandardCharsets.UTF_8));
+						position = event.end;
+						event = queue.poll();
+					}
+					client.flush();
+				}
+			} catch (IOException | InterruptedException | NumberFormatException ex) {
+				// the subscriber disconnected or sent a malformed request
+			} finally {
+				subscribers.remove(this);
+				try {
+					socket.close();
+				} catch (IOException ex) {
+					// already closed
+				}
+			}
+		}
+
+		private void copy(long from, long to, OutputStream client) throws IOException {
+			try (RandomAccessFile feed = new RandomAccessFile(file, "r")) {
+				feed.seek(from);
+				byte[] buffer = new byte[COPY_BUFFER];
+				long remaining = to - from;
+				while (remaining > 0) {
+					int read = feed.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (read < 0) {
+						break;
+					}
+					client.write(buffer, 0, read);
+					remaining -= read;
+				}
+			}
+		}
+	}
+}
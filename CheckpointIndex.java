@@ -0,0 +1,82 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CheckpointIndex {
+
+	private static final int INITIAL_CAPACITY = 4;
+	private int interval;
+	private Map<Integer, Checkpoints> checkpoints;
+
+	/**
+	 * Constructor for the CheckpointIndex object. Every interval postings of an
+	 * account, the index records the transaction ID and the account's total change
+	 * in balance since it was opened. Balances as of any transaction then need
+	 * one checkpoint lookup and at most interval postings replayed.
+	 *
+	 * @param interval the number of postings between checkpoints
+	 */
+	public CheckpointIndex(int interval) {
+		this.interval = interval;
+		this.checkpoints = new HashMap<Integer, Checkpoints>();
+	}
+
+	/**
+	 * Records a posting to an account. Postings must be added in transaction ID
+	 * order, once per transaction the account took part in.
+	 *
+	 * @param accNo  the account number
+	 * @param id     the transaction ID
+	 * @param change the net change in balance the transaction caused
+	 */
+	public void add(int accNo, int id, long change) {
+		Checkpoints c = checkpoints.get(accNo);
+		if (c == null) {
+			c = new Checkpoints();
+			checkpoints.put(accNo, c);
+		}
+		c.change += change;
+		c.postings++;
+		if (c.postings % interval != 0) {
+			return;
+		}
+		if (c.size == c.ids.length) {
+			c.ids = Arrays.copyOf(c.ids, c.size * 2);
+			c.changes = Arrays.copyOf(c.changes, c.size * 2);
+		}
+		c.ids[c.size] = id;
+		c.changes[c.size] = c.change;
+		c.size++;
+	}
+
+	/**
+	 * Returns the latest checkpoint of an account at or before a transaction as
+	 * {transaction ID, total change}, or {0, 0} if there is none.
+	 *
+	 * @param accNo the account number
+	 * @param id    the transaction ID
+	 * @return the checkpoint
+	 */
+	public long[] floor(int accNo, int id) {
+		Checkpoints c = checkpoints.get(accNo);
+		if (c == null) {
+			return new long[] { 0, 0 };
+		}
+		int i = Arrays.binarySearch(c.ids, 0, c.size, id);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		if (i < 0) {
+			return new long[] { 0, 0 };
+		}
+		return new long[] { c.ids[i], c.changes[i] };
+	}
+
+	private static class Checkpoints {
+		private int[] ids = new int[INITIAL_CAPACITY];
+		private long[] changes = new long[INITIAL_CAPACITY];
+		private int size = 0;
+		private int postings = 0;
+		private long change = 0;
+	}
+}
@@ -0,0 +1,88 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HistoryCache {
+
+	private LinkedHashMap<Integer, List<Transaction>> histories;
+	private int budget;
+	private int used;
+
+	/**
+	 * Constructor for the HistoryCache object. The cache holds materialized
+	 * account histories and evicts the least recently used ones once the total
+	 * number of cached transactions exceeds the budget.
+	 *
+	 * @param budget the maximum number of cached transactions
+	 */
+	public HistoryCache(int budget) {
+		this.histories = new LinkedHashMap<Integer, List<Transaction>>(16, 0.75f, true);
+		this.budget = budget;
+		this.used = 0;
+	}
+
+	/**
+	 * Returns the cached history of an account. Returns null if not cached.
+	 *
+	 * @param accNo the account number
+	 * @return the transaction history
+	 */
+	public List<Transaction> get(int accNo) {
+		return histories.get(accNo);
+	}
+
+	/**
+	 * Caches the history of an account, evicting older entries if over budget.
+	 *
+	 * @param accNo   the account number
+	 * @param history the transaction history
+	 */
+	public void put(int accNo, List<Transaction> history) {
+		List<Transaction> previous = histories.put(accNo, history);
+		if (previous != null) {
+			used -= previous.size();
+		}
+		used += history.size();
+		evict(accNo);
+	}
+
+	/**
+	 * Appends a new transaction to the history of an account if it is cached.
+	 *
+	 * @param accNo       the account number
+	 * @param transaction the new transaction
+	 */
+	public void append(int accNo, Transaction transaction) {
+		List<Transaction> history = histories.get(accNo);
+		if (history == null) {
+			return;
+		}
+		if (history.size() > 0 && history.get(history.size() - 1) == transaction) {
+			return;
+		}
+		history.add(transaction);
+		used++;
+		evict(accNo);
+	}
+
+	/**
+	 * Drops all cached histories.
+	 */
+	public void clear() {
+		histories.clear();
+		used = 0;
+	}
+
+	private void evict(int keep) {
+		Iterator<Map.Entry<Integer, List<Transaction>>> it = histories.entrySet().iterator();
+		while (used > budget && it.hasNext()) {
+			Map.Entry<Integer, List<Transaction>> eldest = it.next();
+			if (eldest.getKey() == keep) {
+				continue;
+			}
+			used -= eldest.getValue().size();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class HotAccountBenchmark {
+
+	public static final int FIRST_ACCOUNT = 100000;
+
+	private int accounts;
+	private int operations;
+	private int threads;
+	private int merchants;
+	private int share;
+	private long seed;
+
+	/**
+	 * Constructor for the HotAccountBenchmark object, with the default workload of
+	 * 1000000 payments on 8 threads from 10000 accounts, 90% of which go to one
+	 * merchant account.
+	 */
+	public HotAccountBenchmark() {
+		this.accounts = 10000;
+		this.operations = 1000000;
+		this.threads = 8;
+		this.merchants = 1;
+		this.share = 90;
+		this.seed = 42;
+	}
+
+	/**
+	 * Reads the workload from command line options. Returns false if an option is
+	 * not recognised.
+	 *
+	 * @param args the command line options
+	 * @return whether the options were valid
+	 */
+	public boolean configure(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--accounts":
+					accounts = Integer.parseInt(value);
+					break;
+				case "--ops":
+					operations = Integer.parseInt(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--merchants":
+					merchants = Integer.parseInt(value);
+					break;
+				case "--share":
+					share = Integer.parseInt(value);
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				default:
+					return false;
+			}
+		}
+		return args.length % 2 == 0 && threads > 0 && merchants > 0 && merchants < accounts && share >= 0
+				&& share <= 100;
+	}
+
+	/**
+	 * Runs the same skewed payment workload with the merchant accounts as ordinary
+	 * accounts and as hot accounts, and displays the throughput and payment
+	 * latency of each run. Both are run once beforehand to warm up the JIT.
+	 */
+	public void run() {
+		System.out.printf("%d payments on %d threads from %d accounts, %d%% to %d merchant account(s)%n",
+				operations, threads, accounts, share, merchants);
+		measure(false);
+		measure(true);
+		System.out.println(measure(false));
+		System.out.println(measure(true));
+	}
+
+	private String measure(final boolean hot) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		final Banker banker = new Banker();
+		for (int i = 0; i < accounts; i++) {
+			banker.createAccount("hot", Integer.toString(i), Banker.DEFAULT);
+		}
+		if (hot) {
+			for (int i = 0; i < merchants; i++) {
+				banker.hot(FIRST_ACCOUNT + i);
+			}
+		}
+		final long[][] latencies = new long[threads][];
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int worker = t;
+			final int count = operations / threads + (t < threads - operations % threads ? 0 : 1);
+			latencies[t] = new long[count];
+			workers.add(new Thread(() -> drive(banker, new Random(seed + worker), latencies[worker])));
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		long elapsed = System.nanoTime() - start;
+		long total = 0;
+		for (BankAccount account : banker.getAccounts().values()) {
+			total += account.getBalance();
+		}
+		boolean valid = Transaction.verify(banker.getTransactions());
+		System.setOut(out);
+		long[] sample = new long[operations];
+		int n = 0;
+		for (long[] l : latencies) {
+			System.arraycopy(l, 0, sample, n, l.length);
+			n += l.length;
+		}
+		Arrays.sort(sample);
+		return String.format("%-8s %.0f payments/sec  p50 %.1fus  p99 %.1fus  p99.9 %.1fus  total conserved: %s"
+				+ "  ledger valid: %s", hot ? "hot" : "ordinary", operations / (elapsed / 1e9),
+				sample[n / 2] / 1e3, sample[Math.min(n - 1, (int) (0.99 * n))] / 1e3,
+				sample[Math.min(n - 1, (int) (0.999 * n))] / 1e3,
+				total == (long) accounts * Banker.DEFAULT ? "yes" : "no", valid ? "yes" : "no");
+	}
+
+	private void drive(Banker banker, Random random, long[] latencies) {
+		for (int i = 0; i < latencies.length; i++) {
+			int sender = FIRST_ACCOUNT + merchants + random.nextInt(accounts - merchants);
+			int receiver;
+			if (random.nextInt(100) < share) {
+				receiver = FIRST_ACCOUNT + random.nextInt(merchants);
+			} else {
+				receiver = FIRST_ACCOUNT + merchants + random.nextInt(accounts - merchants);
+				if (receiver == sender) {
+					receiver = FIRST_ACCOUNT + random.nextInt(merchants);
+				}
+			}
+			long begin = System.nanoTime();
+			banker.pay(sender, receiver, 1 + random.nextInt(10));
+			latencies[i] = System.nanoTime() - begin;
+		}
+	}
+
+	public static void main(String[] args) {
+		HotAccountBenchmark benchmark = new HotAccountBenchmark();
+		if (!benchmark.configure(args)) {
+			System.out.println("usage: HotAccountBenchmark [--accounts <n>] [--ops <n>] [--threads <n>]"
+					+ " [--merchants <n>] [--share <percent>] [--seed <n>]");
+			return;
+		}
+		benchmark.run();
+	}
+}
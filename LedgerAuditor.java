@@ -0,0 +1,325 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LedgerAuditor implements Runnable {
+
+	public static final int CHUNK = 1000;
+	public static final int IDLE_MILLIS = 1000;
+	public static final int SAMPLE_ACCOUNTS = 16;
+
+	private Banker banker;
+	private double budget;
+	private String watermarkFile;
+	private volatile boolean running;
+	private Random random;
+
+	private int verified;
+	private String verifiedHash;
+	private int counted;
+	private long[] flows;
+	private int flowBase;
+	private int brokenAt;
+	private int persisted;
+	private long passes;
+	private boolean totalsChecked;
+	private long heldTotal;
+	private long expectedTotal;
+	private long accountsChecked;
+	private long accountMismatches;
+	private int lastMismatch;
+
+	/**
+	 * Constructor for the LedgerAuditor object. The auditor checks the ledger of a
+	 * Banker from a background thread, taking the Banker lock for at most CHUNK
+	 * entries at a time. It verifies the hash chain from the last verified entry
+	 * onwards and keeps the net flow of every account. Whenever it has caught up
+	 * with the ledger, it checks that the total balance equals the opening
+	 * balances plus the net flows. It also cross-checks the balance and history
+	 * of a random sample of accounts.
+	 *
+	 * @param banker        the Banker to audit
+	 * @param budget        the share of one CPU the auditor may use, above 0 and
+	 *                      at most 1
+	 * @param watermarkFile the file the last verified entry is kept in, or null
+	 */
+	public LedgerAuditor(Banker banker, double budget, String watermarkFile) {
+		this.banker = banker;
+		this.budget = budget;
+		this.watermarkFile = watermarkFile;
+		this.running = false;
+		this.random = new Random();
+		this.flows = new long[1024];
+		reset();
+		if (watermarkFile != null) {
+			loadWatermark();
+		}
+	}
+
+	/**
+	 * Starts the auditor thread.
+	 */
+	public void start() {
+		running = true;
+		Thread thread = new Thread(this, "ledger-auditor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Asks the auditor thread to stop after its current step.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Returns true if the auditor thread has not been asked to stop.
+	 *
+	 * @return whether the auditor is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the results of the audit so far. Must be called holding the Banker
+	 * lock.
+	 *
+	 * @return the formatted String
+	 */
+	public String status() {
+		String result = (running ? "running" : "stopped") + ", budget "
+				+ Long.toString(Math.round(budget * 100)) + "% of a CPU, " + Long.toString(passes)
+				+ " passes\n";
+		result += "verified through transaction " + Integer.toString(verified) + " of "
+				+ Integer.toString(banker.getTransactions().size()) + "\n";
+		result += "chain: " + (brokenAt == 0 ? "ok" : "broken at transaction " + Integer.toString(brokenAt)) + "\n";
+		if (!totalsChecked) {
+			result += "totals: not checked yet\n";
+		} else if (heldTotal == expectedTotal) {
+			result += "totals: ok\n";
+		} else {
+			result += "totals: $" + Long.toString(heldTotal) + " held, $" + Long.toString(expectedTotal)
+					+ " expected\n";
+		}
+		result += "accounts: " + Long.toString(accountsChecked) + " checked, " + Long.toString(accountMismatches)
+				+ " mismatched";
+		if (accountMismatches > 0) {
+			result += ", last " + Integer.toString(lastMismatch);
+		}
+		return result;
+	}
+
+	@Override
+	public void run() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+		while (running) {
+			long start = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+			boolean busy;
+			synchronized (banker) {
+				busy = step();
+			}
+			if (!busy) {
+				busy = checkBalances();
+			}
+			long used = (cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - start;
+			long pause = busy ? (long) (used * (1 - budget) / budget) : IDLE_MILLIS * 1000000L;
+			try {
+				Thread.sleep(pause / 1000000, (int) (pause % 1000000));
+			} catch (InterruptedException ex) {
+				break;
+			}
+		}
+		synchronized (banker) {
+			saveWatermark();
+		}
+	}
+
+	/**
+	 * Verifies or counts the next chunk of the ledger. Returns false if the
+	 * auditor has caught up with the ledger.
+	 */
+	private boolean step() {
+		List<Transaction> ledger = banker.getTransactions();
+		int size = ledger.size();
+		if (verified > size || (verified > 0 && !ledger.get(verified - 1).getHash().equals(verifiedHash))) {
+			reset();
+		}
+		if (counted < verified) {
+			int to = Math.min(counted + CHUNK, verified);
+			count(ledger, counted + 1, to);
+			counted = to;
+			return true;
+		}
+		if (brokenAt != 0 || verified == size) {
+			return false;
+		}
+		int to = Math.min(verified + CHUNK, size);
+		int bad = Transaction.verify(ledger, verified + 1, to);
+		if (bad != 0) {
+			brokenAt = bad;
+			to = bad - 1;
+		}
+		count(ledger, verified + 1, to);
+		verified = to;
+		counted = to;
+		verifiedHash = to == 0 ? null : ledger.get(to - 1).getHash();
+		return true;
+	}
+
+	/**
+	 * Checks the totals and a sample of accounts once the auditor has caught up.
+	 * Returns true if the ledger grew in the meantime.
+	 */
+	private boolean checkBalances() {
+		synchronized (banker) {
+			if (brokenAt != 0 || verified != banker.getTransactions().size()) {
+				return brokenAt == 0;
+			}
+			int[] sample = sample(banker.getAccounts());
+			totalsMatch();
+			record(sample, mismatched(sample));
+			saveWatermark();
+		}
+		return false;
+	}
+
+	private boolean totalsMatch() {
+		long held = 0;
+		long expected = 0;
+		for (BankAccount account : banker.getAccounts().values()) {
+			held += account.getBalance();
+			expected += account.getOpeningBalance() + flow(account.getAccNo());
+		}
+		heldTotal = held;
+		expectedTotal = expected;
+		totalsChecked = true;
+		return held == expected;
+	}
+
+	/**
+	 * Returns the number of sampled accounts whose balance or history disagrees
+	 * with the audited ledger, remembering the last one.
+	 */
+	private int mismatched(int[] sample) {
+		int failed = 0;
+		for (int accNo : sample) {
+			BankAccount account = banker.getAccounts().get(accNo);
+			long expected = account.getOpeningBalance() + flow(accNo);
+			boolean valid = account.getBalance() == expected;
+			List<Transaction> history = banker.getHistory(accNo);
+			long change = 0;
+			int lastId = 0;
+			for (int i = 0; valid && i < history.size(); i++) {
+				Transaction t = history.get(i);
+				valid = t.getId() > lastId && t.involves(accNo);
+				change += t.netChange(accNo);
+				lastId = t.getId();
+			}
+			if (!valid || change != flow(accNo)) {
+				failed++;
+				lastMismatch = accNo;
+			}
+		}
+		return failed;
+	}
+
+	private void record(int[] sample, int failed) {
+		passes++;
+		accountsChecked += sample.length;
+		accountMismatches += failed;
+	}
+
+	private int[] sample(Map<Integer, BankAccount> accounts) {
+		if (accounts.isEmpty()) {
+			return new int[0];
+		}
+		int[] accNos = accounts.keySet().stream().mapToInt(Integer::intValue).toArray();
+		int[] sample = new int[Math.min(SAMPLE_ACCOUNTS, accNos.length)];
+		for (int i = 0; i < sample.length; i++) {
+			sample[i] = accNos[random.nextInt(accNos.length)];
+		}
+		return sample;
+	}
+
+	private void count(List<Transaction> ledger, int from, int to) {
+		for (int id = from; id <= to; id++) {
+			Transaction t = ledger.get(id - 1);
+			for (int leg = 0; leg < t.legCount(); leg++) {
+				addFlow(t.getSender(leg).getAccNo(), -t.getAmount(leg));
+				addFlow(t.getReceiver(leg).getAccNo(), t.getAmount(leg));
+			}
+		}
+	}
+
+	/**
+	 * Adds to the net flow of an account. The flows are indexed from the smallest
+	 * account number seen since the last reset, and shifted up if a smaller one
+	 * turns up, so account numbers need not start at 100000.
+	 */
+	private void addFlow(int accNo, long amount) {
+		if (flowBase == Integer.MAX_VALUE) {
+			flowBase = accNo;
+		} else if (accNo < flowBase) {
+			long[] shifted = new long[flows.length + (flowBase - accNo)];
+			System.arraycopy(flows, 0, shifted, flowBase - accNo, flows.length);
+			flows = shifted;
+			flowBase = accNo;
+		}
+		int slot = accNo - flowBase;
+		if (slot >= flows.length) {
+			flows = Arrays.copyOf(flows, Math.max(slot + 1, flows.length * 2));
+		}
+		flows[slot] += amount;
+	}
+
+	private long flow(int accNo) {
+		long slot = (long) accNo - flowBase;
+		return slot >= 0 && slot < flows.length ? flows[(int) slot] : 0;
+	}
+
+	private void reset() {
+		verified = 0;
+		verifiedHash = null;
+		counted = 0;
+		brokenAt = 0;
+		Arrays.fill(flows, 0);
+		flowBase = Integer.MAX_VALUE;
+	}
+
+	private void loadWatermark() {
+		try (BufferedReader reader = new BufferedReader(new FileReader(watermarkFile))) {
+			String line = reader.readLine();
+			if (line == null) {
+				return;
+			}
+			String[] details = line.split("\\s*,\\s*");
+			verified = Integer.parseInt(details[0]);
+			verifiedHash = details[1];
+			persisted = verified;
+		} catch (IOException | RuntimeException ex) {
+			reset();
+		}
+	}
+
+	private void saveWatermark() {
+		if (watermarkFile == null || verified == persisted) {
+			return;
+		}
+		try (FileWriter writer = new FileWriter(watermarkFile)) {
+			writer.write(Integer.toString(verified) + ", " + verifiedHash + "\n");
+			persisted = verified;
+		} catch (IOException ex) {
+			System.out.println("watermark write failed");
+		}
+	}
+}
@@ -0,0 +1,294 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LoadGenerator {
+
+	public static final String[] OPERATIONS = { "PAY", "MERGE", "CANCEL", "HISTORY", "BALANCE", "AGGREGATE" };
+	public static final int FIRST_ACCOUNT = 100000;
+
+	private int accounts;
+	private int operations;
+	private int threads;
+	private double skew;
+	private int[] mix;
+	private int hot;
+	private long netting;
+	private long seed;
+	private double[] cumulative;
+
+	/**
+	 * Constructor for the LoadGenerator object, with the default workload of 10000
+	 * accounts, 1000000 operations on 4 threads, uniform account choice and a mix
+	 * of mostly payments.
+	 */
+	public LoadGenerator() {
+		this.accounts = 10000;
+		this.operations = 1000000;
+		this.threads = 4;
+		this.skew = 0;
+		this.mix = new int[] { 80, 1, 2, 7, 8, 2 };
+		this.hot = 0;
+		this.netting = 0;
+		this.seed = 42;
+	}
+
+	/**
+	 * Reads the workload from command line options. Returns false if an option is
+	 * not recognised.
+	 *
+	 * @param args the command line options
+	 * @return whether the options were valid
+	 */
+	public boolean configure(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--accounts":
+					accounts = Integer.parseInt(value);
+					break;
+				case "--ops":
+					operations = Integer.parseInt(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--zipf":
+					skew = Double.parseDouble(value);
+					break;
+				case "--mix":
+					String[] weights = value.split(",");
+					if (weights.length != OPERATIONS.length) {
+						return false;
+					}
+					for (int w = 0; w < weights.length; w++) {
+						mix[w] = Integer.parseInt(weights[w]);
+					}
+					break;
+				case "--hot":
+					hot = Integer.parseInt(value);
+					break;
+				case "--netting":
+					netting = Long.parseLong(value);
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				default:
+					return false;
+			}
+		}
+		return args.length % 2 == 0;
+	}
+
+	/**
+	 * Creates the accounts, runs the workload and displays the report.
+	 */
+	public void run() {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Banker banker = new Banker();
+		for (int i = 0; i < accounts; i++) {
+			banker.createAccount("load", Integer.toString(i), Banker.DEFAULT);
+		}
+		for (int i = 0; i < hot && i < accounts; i++) {
+			banker.hot(FIRST_ACCOUNT + i);
+		}
+		if (netting > 0) {
+			banker.netting(netting);
+		}
+		long openingTotal = (long) accounts * Banker.DEFAULT;
+		cumulative = skew > 0 ? zipf(accounts, skew) : null;
+
+		final Banker target = banker;
+		final long[][] latencies = new long[threads][];
+		final int[][] kinds = new int[threads][];
+		final long[] allocated = new long[threads];
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int worker = t;
+			// the last operations % threads threads take one operation more each
+			final int count = operations / threads + (t < threads - operations % threads ? 0 : 1);
+			latencies[t] = new long[count];
+			kinds[t] = new int[count];
+			workers.add(new Thread(() -> {
+				long before = allocatedBytes();
+				drive(target, new Random(seed + worker), latencies[worker], kinds[worker]);
+				allocated[worker] = allocatedBytes() - before;
+			}));
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (netting > 0) {
+			banker.settle();
+		}
+		System.setOut(out);
+		report(banker, openingTotal, elapsed, latencies, kinds, allocated);
+	}
+
+	private void drive(Banker banker, Random random, long[] latencies, int[] kinds) {
+		int totalWeight = 0;
+		for (int weight : mix) {
+			totalWeight += weight;
+		}
+		for (int i = 0; i < latencies.length; i++) {
+			int pick = random.nextInt(totalWeight);
+			int kind = 0;
+			while (pick >= mix[kind]) {
+				pick -= mix[kind];
+				kind++;
+			}
+			long begin = System.nanoTime();
+			switch (kind) {
+				case 0:
+					int sender = account(random);
+					int receiver = account(random);
+					if (sender == receiver) {
+						receiver = FIRST_ACCOUNT + (receiver - FIRST_ACCOUNT + 1) % accounts;
+					}
+					banker.pay(sender, receiver, 1 + random.nextInt(100));
+					break;
+				case 1:
+					int dest = account(random);
+					int source = account(random);
+					banker.merge(dest, source == dest ? new int[0] : new int[] { source });
+					break;
+				case 2:
+					int size = banker.getTransactions().size();
+					banker.cancel(size == 0 ? 1 : 1 + random.nextInt(size));
+					break;
+				case 3:
+					banker.history(account(random));
+					break;
+				case 4:
+					banker.balance(account(random));
+					break;
+				default:
+					switch (random.nextInt(5)) {
+						case 0:
+							banker.max();
+							break;
+						case 1:
+							banker.min();
+							break;
+						case 2:
+							banker.mean();
+							break;
+						case 3:
+							banker.median();
+							break;
+						default:
+							banker.total();
+							break;
+					}
+					break;
+			}
+			latencies[i] = System.nanoTime() - begin;
+			kinds[i] = kind;
+		}
+	}
+
+	private int account(Random random) {
+		if (cumulative == null) {
+			return FIRST_ACCOUNT + random.nextInt(accounts);
+		}
+		int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (rank < 0) {
+			rank = -rank - 1;
+		}
+		return FIRST_ACCOUNT + Math.min(rank, accounts - 1);
+	}
+
+	private void report(Banker banker, long openingTotal, long elapsed, long[][] latencies, int[][] kinds,
+			long[] allocated) {
+		long done = 0;
+		for (long[] l : latencies) {
+			done += l.length;
+		}
+		double seconds = elapsed / 1e9;
+		System.out.printf("%d ops on %d threads in %.2fs: %.0f ops/sec%n", done, threads, seconds, done / seconds);
+		for (int kind = 0; kind < OPERATIONS.length; kind++) {
+			long[] sample = new long[(int) done];
+			int n = 0;
+			for (int t = 0; t < latencies.length; t++) {
+				for (int i = 0; i < latencies[t].length; i++) {
+					if (kinds[t][i] == kind) {
+						sample[n] = latencies[t][i];
+						n++;
+					}
+				}
+			}
+			if (n == 0) {
+				continue;
+			}
+			Arrays.sort(sample, 0, n);
+			System.out.printf("%-9s %9d ops  p50 %8.1fus  p99 %8.1fus  p99.9 %8.1fus  max %9.1fus%n",
+					OPERATIONS[kind], n, percentile(sample, n, 0.50), percentile(sample, n, 0.99),
+					percentile(sample, n, 0.999), sample[n - 1] / 1e3);
+		}
+		long bytes = 0;
+		for (long a : allocated) {
+			bytes += a;
+		}
+		if (bytes >= 0) {
+			System.out.printf("allocation %.1f MB/s%n", bytes / 1048576.0 / seconds);
+		}
+		long total = 0;
+		for (BankAccount account : banker.getAccounts().values()) {
+			total += account.getBalance();
+		}
+		System.out.println("total conserved: " + (total == openingTotal ? "yes" : "no ($" + total + ")"));
+		System.out.println("ledger of " + banker.getTransactions().size() + " transactions valid: "
+				+ (Transaction.verify(banker.getTransactions()) ? "yes" : "no"));
+	}
+
+	private static double percentile(long[] sorted, int n, double p) {
+		return sorted[Math.min(n - 1, (int) (p * n))] / 1e3;
+	}
+
+	private static double[] zipf(int n, double s) {
+		double[] cumulative = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += 1 / Math.pow(i + 1, s);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) {
+		LoadGenerator generator = new LoadGenerator();
+		if (!generator.configure(args)) {
+			System.out.println("usage: LoadGenerator [--accounts <n>] [--ops <n>] [--threads <n>] [--zipf <s>]"
+					+ " [--mix <pay,merge,cancel,history,balance,aggregate>] [--hot <n>] [--netting <window>]"
+					+ " [--seed <n>]");
+			return;
+		}
+		generator.run();
+	}
+}
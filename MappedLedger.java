@@ -0,0 +1,696 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntFunction;
+
+public class MappedLedger extends AbstractList<Transaction> {
+
+	public static final int RECORD_SIZE = 40;
+	public static final int SEGMENT_RECORDS = 1 << 21;
+	public static final int CHECKPOINT_SIZE = 16;
+	public static final int SEGMENT_CHECKPOINTS = 1 << 18;
+	public static final int FIRST_CHECKPOINTS = 16;
+	public static final int HISTORY_BLOCK = 4096;
+	private static final int FIRST_ACCOUNT = 100000;
+	private static final int NONE = -1;
+
+	private File directory;
+	private File lock;
+	private String prefix;
+	private IntFunction<BankAccount> accounts;
+	private List<MappedByteBuffer> segments;
+	private List<File> segmentFiles;
+	private int[] heads;
+	private int[] batchEntries;
+	private int[] batchExtras;
+	private int batchCount;
+	private int records;
+	private int size;
+	private int checkpointInterval;
+	private List<MappedByteBuffer> checkpointSegments;
+	private List<File> checkpointFiles;
+	private int sharedSegment;
+	private int sharedUsed;
+	private int[] checkpointSegment;
+	private int[] checkpointStart;
+	private int[] postingCounts;
+	private long[] changes;
+
+	/**
+	 * Constructor for the MappedLedger object. Transaction records are stored in
+	 * fixed size slots in memory-mapped segment files, so only the segment list and
+	 * the latest record of each account are kept on the heap.
+	 *
+	 * Each record holds the transaction id, sender, receiver, amount, hash and
+	 * previous hash, followed by the position of the previous record of the sender
+	 * and of the receiver, which chains every account's history through the
+	 * segments, and the timestamp of the transaction. A multi-leg transaction
+	 * takes one consecutive record per leg, and only the positions of those
+	 * transactions are kept to map IDs to records.
+	 *
+	 * Every checkpointInterval postings of an account, a checkpoint of the
+	 * transaction ID, the account's latest record and its total change in balance
+	 * is written to separate mapped segments. Each account's checkpoints lie in
+	 * one array there, in ID order, which is moved to one twice the size when it
+	 * fills up, so a balance as of a past transaction is a binary search away and
+	 * needs no index on the heap beyond the array's place.
+	 *
+	 * The segments are working storage rather than a durable copy of the ledger.
+	 * Each ledger names its files after a lock file it creates in the directory,
+	 * so processes sharing the directory never map each other's files. close
+	 * deletes them all and nothing reopens them on start; ARCHIVE and RECOVER
+	 * remain the way to persist a ledger. Account numbers must start at 100000 and transaction IDs and record
+	 * positions must fit in an int, so one ledger holds at most 2^31 - 1 records.
+	 *
+	 * @param directory          the directory holding the segment files
+	 * @param accounts           looks up the accounts the records refer to
+	 * @param checkpointInterval the number of postings between checkpoints
+	 */
+	public MappedLedger(String directory, IntFunction<BankAccount> accounts, int checkpointInterval) {
+		this.directory = new File(directory);
+		this.directory.mkdirs();
+		try {
+			this.lock = File.createTempFile("mapped-", ".lock", this.directory);
+		} catch (IOException ex) {
+			throw new IllegalStateException("cannot create ledger files in " + directory, ex);
+		}
+		this.prefix = lock.getName().substring(0, lock.getName().length() - ".lock".length());
+		this.accounts = accounts;
+		this.segments = new ArrayList<MappedByteBuffer>();
+		this.segmentFiles = new ArrayList<File>();
+		this.heads = new int[1024];
+		Arrays.fill(heads, NONE);
+		this.batchEntries = new int[16];
+		this.batchExtras = new int[16];
+		this.batchCount = 0;
+		this.records = 0;
+		this.size = 0;
+		this.checkpointInterval = checkpointInterval;
+		this.checkpointSegments = new ArrayList<MappedByteBuffer>();
+		this.checkpointFiles = new ArrayList<File>();
+		this.sharedSegment = NONE;
+		this.sharedUsed = 0;
+		this.checkpointSegment = new int[1024];
+		this.checkpointStart = new int[1024];
+		this.postingCounts = new int[1024];
+		this.changes = new long[1024];
+	}
+
+	/**
+	 * Changes how the accounts the records refer to are looked up.
+	 *
+	 * @param accounts looks up the accounts the records refer to
+	 */
+	public void setAccounts(IntFunction<BankAccount> accounts) {
+		this.accounts = accounts;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the transaction stored at a position of the ledger.
+	 *
+	 * @param index the position, which is the transaction ID - 1
+	 * @return the transaction
+	 */
+	@Override
+	public Transaction get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		int first = position(index);
+		int legs = (index + 1 < size ? position(index + 1) : records) - first;
+		MappedByteBuffer segment = segments.get(first / SEGMENT_RECORDS);
+		int offset = (first % SEGMENT_RECORDS) * RECORD_SIZE;
+		int id = segment.getInt(offset);
+		String hash = Integer.toString(segment.getInt(offset + 16));
+		String prevHash = id == 1 ? null : Integer.toString(segment.getInt(offset + 20));
+		long timestamp = segment.getLong(offset + 32);
+		if (legs == 1) {
+			Transaction transaction = new Transaction(id, accounts.apply(segment.getInt(offset + 4)),
+					accounts.apply(segment.getInt(offset + 8)), segment.getInt(offset + 12), prevHash, hash);
+			transaction.setTimestamp(timestamp);
+			return transaction;
+		}
+		BankAccount[] senders = new BankAccount[legs];
+		BankAccount[] receivers = new BankAccount[legs];
+		int[] amounts = new int[legs];
+		for (int i = 0; i < legs; i++) {
+			senders[i] = accounts.apply(senderAt(first + i));
+			receivers[i] = accounts.apply(receiverAt(first + i));
+			amounts[i] = amountAt(first + i);
+		}
+		Transaction transaction = new Transaction(id, senders, receivers, amounts, prevHash, hash);
+		transaction.setTimestamp(timestamp);
+		return transaction;
+	}
+
+	/**
+	 * Returns the number of records, which is the number of legs in the ledger.
+	 *
+	 * @return the number of records
+	 */
+	public int recordCount() {
+		return records;
+	}
+
+	/**
+	 * Returns the transaction ID of the record at a position.
+	 *
+	 * @param index the record position
+	 * @return the transaction ID
+	 */
+	public int idAt(int index) {
+		return segments.get(index / SEGMENT_RECORDS).getInt((index % SEGMENT_RECORDS) * RECORD_SIZE);
+	}
+
+	/**
+	 * Returns the sender account number of the record at a position.
+	 *
+	 * @param index the record position
+	 * @return the sender account number
+	 */
+	public int senderAt(int index) {
+		return segments.get(index / SEGMENT_RECORDS).getInt((index % SEGMENT_RECORDS) * RECORD_SIZE + 4);
+	}
+
+	/**
+	 * Returns the receiver account number of the record at a position.
+	 *
+	 * @param index the record position
+	 * @return the receiver account number
+	 */
+	public int receiverAt(int index) {
+		return segments.get(index / SEGMENT_RECORDS).getInt((index % SEGMENT_RECORDS) * RECORD_SIZE + 8);
+	}
+
+	/**
+	 * Returns the amount of the record at a position.
+	 *
+	 * @param index the record position
+	 * @return the amount
+	 */
+	public int amountAt(int index) {
+		return segments.get(index / SEGMENT_RECORDS).getInt((index % SEGMENT_RECORDS) * RECORD_SIZE + 12);
+	}
+
+	/**
+	 * Returns the hash of the transaction of the record at a position.
+	 *
+	 * @param index the record position
+	 * @return the hash
+	 */
+	public int hashAt(int index) {
+		return segments.get(index / SEGMENT_RECORDS).getInt((index % SEGMENT_RECORDS) * RECORD_SIZE + 16);
+	}
+
+	/**
+	 * Returns the number of records with an amount between min and max inclusive.
+	 *
+	 * @param min the smallest amount
+	 * @param max the largest amount
+	 * @return the number of records
+	 */
+	public long countAmounts(int min, int max) {
+		long count = 0;
+		for (int i = 0; i < records; i++) {
+			int amount = amountAt(i);
+			if (amount >= min && amount <= max) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the AmountIndex keys of the records with an amount between min and
+	 * max inclusive in ID order, skipping the first skip matches. A key is
+	 * returned once for a transaction with several legs of the same amount.
+	 *
+	 * @param min   the smallest amount
+	 * @param max   the largest amount
+	 * @param skip  the number of matches to skip
+	 * @param limit the largest number of keys to return
+	 * @return the matching keys
+	 */
+	public long[] findAmounts(int min, int max, long skip, int limit) {
+		long[] found = new long[limit];
+		int count = 0;
+		for (int i = 0; i < records && count < limit; i++) {
+			int amount = amountAt(i);
+			if (amount < min || amount > max) {
+				continue;
+			}
+			int id = idAt(i);
+			boolean repeated = false;
+			for (int j = i - 1; j >= 0 && !repeated && idAt(j) == id; j--) {
+				repeated = amountAt(j) == amount;
+			}
+			if (repeated) {
+				continue;
+			}
+			if (skip > 0) {
+				skip--;
+				continue;
+			}
+			found[count] = AmountIndex.key(amount, id);
+			count++;
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Appends a transaction to the end of the ledger.
+	 *
+	 * @param transaction the transaction
+	 * @return true
+	 */
+	@Override
+	public boolean add(Transaction transaction) {
+		int legs = transaction.legCount();
+		if (legs > 1) {
+			if (batchCount == batchEntries.length) {
+				batchEntries = Arrays.copyOf(batchEntries, batchCount * 2);
+				batchExtras = Arrays.copyOf(batchExtras, batchCount * 2);
+			}
+			batchEntries[batchCount] = size;
+			batchExtras[batchCount] = (batchCount == 0 ? 0 : batchExtras[batchCount - 1]) + legs - 1;
+			batchCount++;
+		}
+		int hash = Integer.parseInt(transaction.getHash());
+		int prevHash = transaction.getPrevHash() == null ? 0 : Integer.parseInt(transaction.getPrevHash());
+		for (int i = 0; i < legs; i++) {
+			if (records / SEGMENT_RECORDS == segments.size()) {
+				mapSegment();
+			}
+			int sender = transaction.getSender(i).getAccNo();
+			int receiver = transaction.getReceiver(i).getAccNo();
+			MappedByteBuffer segment = segments.get(records / SEGMENT_RECORDS);
+			int offset = (records % SEGMENT_RECORDS) * RECORD_SIZE;
+			segment.putInt(offset, transaction.getId());
+			segment.putInt(offset + 4, sender);
+			segment.putInt(offset + 8, receiver);
+			segment.putInt(offset + 12, transaction.getAmount(i));
+			segment.putInt(offset + 16, hash);
+			segment.putInt(offset + 20, prevHash);
+			segment.putInt(offset + 24, head(sender));
+			segment.putInt(offset + 28, head(receiver));
+			segment.putLong(offset + 32, transaction.getTimestamp());
+			setHead(sender, records);
+			setHead(receiver, records);
+			records++;
+		}
+		if (legs == 1) {
+			posting(transaction.getSender().getAccNo(), transaction.getId(), -transaction.getAmount());
+			posting(transaction.getReceiver().getAccNo(), transaction.getId(), transaction.getAmount());
+		} else {
+			for (Map.Entry<Integer, long[]> entry : transaction.flows().entrySet()) {
+				posting(entry.getKey(), transaction.getId(), entry.getValue()[1] - entry.getValue()[0]);
+			}
+		}
+		size++;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Returns an account's total change in balance up to and including a
+	 * transaction. Binary searches the account's checkpoints for the first one
+	 * after the transaction, starts from it, or from the latest record if there is
+	 * none, and undoes the at most checkpointInterval postings back to the
+	 * transaction.
+	 *
+	 * @param accNo the account number
+	 * @param id    the transaction ID
+	 * @return the total change in balance
+	 */
+	public long changeAt(int accNo, int id) {
+		int slot = accNo - FIRST_ACCOUNT;
+		if (slot < 0 || slot >= postingCounts.length) {
+			return 0;
+		}
+		long change = changes[slot];
+		int position = head(accNo);
+		int low = 0;
+		int high = postingCounts[slot] / checkpointInterval;
+		if (high > 0) {
+			MappedByteBuffer segment = checkpointSegments.get(checkpointSegment[slot]);
+			int start = checkpointStart[slot];
+			int count = high;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (segment.getInt((start + mid) * CHECKPOINT_SIZE) <= id) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			if (low < count) {
+				int offset = (start + low) * CHECKPOINT_SIZE;
+				position = segment.getInt(offset + 4);
+				change = segment.getLong(offset + 8);
+			}
+		}
+		while (position != NONE) {
+			MappedByteBuffer segment = segments.get(position / SEGMENT_RECORDS);
+			int offset = (position % SEGMENT_RECORDS) * RECORD_SIZE;
+			if (segment.getInt(offset) <= id) {
+				break;
+			}
+			if (segment.getInt(offset + 4) == accNo) {
+				change += segment.getInt(offset + 12);
+				position = segment.getInt(offset + 24);
+			} else {
+				change -= segment.getInt(offset + 12);
+				position = segment.getInt(offset + 28);
+			}
+		}
+		return change;
+	}
+
+	/**
+	 * Returns all transactions involving an account by following its chain of
+	 * records backwards through the segments.
+	 *
+	 * @param accNo the account number
+	 * @return the transaction history, empty if none
+	 */
+	public List<Transaction> history(int accNo) {
+		List<Transaction> history = new ArrayList<Transaction>();
+		int position = head(accNo);
+		int lastId = 0;
+		while (position != NONE) {
+			MappedByteBuffer segment = segments.get(position / SEGMENT_RECORDS);
+			int offset = (position % SEGMENT_RECORDS) * RECORD_SIZE;
+			int id = segment.getInt(offset);
+			if (id != lastId) {
+				history.add(get(id - 1));
+				lastId = id;
+			}
+			if (segment.getInt(offset + 4) == accNo) {
+				position = segment.getInt(offset + 24);
+			} else {
+				position = segment.getInt(offset + 28);
+			}
+		}
+		Collections.reverse(history);
+		return history;
+	}
+
+	/**
+	 * Returns the positions of the records of an account in the order they were
+	 * added, read straight from the segments. The chain of records runs
+	 * backwards, so it is walked once to note the position of every
+	 * HISTORY_BLOCK-th record, and each block is then read again and reversed;
+	 * only the noted positions and one block are kept on the heap.
+	 *
+	 * @param accNo the account number
+	 * @return the record positions
+	 */
+	public PrimitiveIterator.OfInt historyPositions(int accNo) {
+		return new HistoryIterator(accNo);
+	}
+
+	/**
+	 * Returns the IDs of the transactions with a leg from one account to another,
+	 * in ID order, by following the chain of records of the sender.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @return the transaction IDs
+	 */
+	public int[] transfers(int sender, int receiver) {
+		int[] ids = new int[16];
+		int count = 0;
+		int position = head(sender);
+		while (position != NONE) {
+			MappedByteBuffer segment = segments.get(position / SEGMENT_RECORDS);
+			int offset = (position % SEGMENT_RECORDS) * RECORD_SIZE;
+			int id = segment.getInt(offset);
+			if (segment.getInt(offset + 4) == sender) {
+				if (segment.getInt(offset + 8) == receiver && (count == 0 || ids[count - 1] != id)) {
+					if (count == ids.length) {
+						ids = Arrays.copyOf(ids, count * 2);
+					}
+					ids[count] = id;
+					count++;
+				}
+				position = segment.getInt(offset + 24);
+			} else {
+				position = segment.getInt(offset + 28);
+			}
+		}
+		int[] ascending = new int[count];
+		for (int i = 0; i < count; i++) {
+			ascending[i] = ids[count - 1 - i];
+		}
+		return ascending;
+	}
+
+	/**
+	 * Writes any changes to the mapped segments out to their files.
+	 */
+	public void force() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	/**
+	 * Unmaps the segments and deletes their files. The ledger is empty afterwards.
+	 */
+	public void close() {
+		for (MappedByteBuffer segment : segments) {
+			unmap(segment);
+		}
+		segments.clear();
+		for (File f : segmentFiles) {
+			f.delete();
+		}
+		segmentFiles.clear();
+		for (MappedByteBuffer segment : checkpointSegments) {
+			unmap(segment);
+		}
+		checkpointSegments.clear();
+		for (File f : checkpointFiles) {
+			f.delete();
+		}
+		checkpointFiles.clear();
+		lock.delete();
+		Arrays.fill(heads, NONE);
+		Arrays.fill(postingCounts, 0);
+		Arrays.fill(changes, 0);
+		sharedSegment = NONE;
+		sharedUsed = 0;
+		batchCount = 0;
+		records = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns the position of the record of an account before the record at a
+	 * position, or NONE if it is the first.
+	 */
+	private int previous(int position, int accNo) {
+		MappedByteBuffer segment = segments.get(position / SEGMENT_RECORDS);
+		int offset = (position % SEGMENT_RECORDS) * RECORD_SIZE;
+		return segment.getInt(offset + (segment.getInt(offset + 4) == accNo ? 24 : 28));
+	}
+
+	private int position(int index) {
+		int low = 0;
+		int high = batchCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (batchEntries[mid] < index) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return index + (low == 0 ? 0 : batchExtras[low - 1]);
+	}
+
+	/**
+	 * Records a transaction's net change to an account, writing a checkpoint every
+	 * checkpointInterval postings. Called once per account per transaction, after
+	 * its records were added.
+	 */
+	private void posting(int accNo, int id, long change) {
+		int slot = accNo - FIRST_ACCOUNT;
+		if (slot >= postingCounts.length) {
+			int length = Math.max(slot + 1, postingCounts.length * 2);
+			checkpointSegment = Arrays.copyOf(checkpointSegment, length);
+			checkpointStart = Arrays.copyOf(checkpointStart, length);
+			postingCounts = Arrays.copyOf(postingCounts, length);
+			changes = Arrays.copyOf(changes, length);
+		}
+		changes[slot] += change;
+		postingCounts[slot]++;
+		if (postingCounts[slot] % checkpointInterval != 0) {
+			return;
+		}
+		int index = postingCounts[slot] / checkpointInterval - 1;
+		if (index == 0 || (index >= FIRST_CHECKPOINTS && Integer.bitCount(index) == 1)) {
+			moveCheckpoints(slot, index, Math.max(FIRST_CHECKPOINTS, index * 2));
+		}
+		MappedByteBuffer segment = checkpointSegments.get(checkpointSegment[slot]);
+		int offset = (checkpointStart[slot] + index) * CHECKPOINT_SIZE;
+		segment.putInt(offset, id);
+		segment.putInt(offset + 4, head(accNo));
+		segment.putLong(offset + 8, changes[slot]);
+	}
+
+	/**
+	 * Moves an account's checkpoints to a new array with room for capacity of
+	 * them. Arrays of up to a quarter of a segment share segments; larger ones get
+	 * a segment of their own. The space of the old array is not reused.
+	 */
+	private void moveCheckpoints(int slot, int count, int capacity) {
+		int segmentNumber;
+		int start;
+		if (capacity > SEGMENT_CHECKPOINTS / 4) {
+			segmentNumber = checkpointSegments.size();
+			start = 0;
+			checkpointSegments.add(mapSegment("checkpoints", segmentNumber, checkpointFiles,
+					(long) capacity * CHECKPOINT_SIZE));
+		} else {
+			if (sharedSegment == NONE || sharedUsed + capacity > SEGMENT_CHECKPOINTS) {
+				sharedSegment = checkpointSegments.size();
+				sharedUsed = 0;
+				checkpointSegments.add(mapSegment("checkpoints", sharedSegment, checkpointFiles,
+						(long) SEGMENT_CHECKPOINTS * CHECKPOINT_SIZE));
+			}
+			segmentNumber = sharedSegment;
+			start = sharedUsed;
+			sharedUsed += capacity;
+		}
+		if (count > 0) {
+			MappedByteBuffer from = checkpointSegments.get(checkpointSegment[slot]);
+			MappedByteBuffer to = checkpointSegments.get(segmentNumber);
+			for (int i = 0; i < count * CHECKPOINT_SIZE; i += 8) {
+				to.putLong(start * CHECKPOINT_SIZE + i, from.getLong(checkpointStart[slot] * CHECKPOINT_SIZE + i));
+			}
+		}
+		checkpointSegment[slot] = segmentNumber;
+		checkpointStart[slot] = start;
+	}
+
+	private void mapSegment() {
+		segments.add(mapSegment("ledger", segments.size(), segmentFiles, (long) SEGMENT_RECORDS * RECORD_SIZE));
+	}
+
+	private MappedByteBuffer mapSegment(String name, int number, List<File> files, long length) {
+		File f = new File(directory, prefix + "-" + name + "-" + number + ".seg");
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			files.add(f);
+			return segment;
+		} catch (IOException ex) {
+			throw new IllegalStateException("cannot map " + name + " segment " + f, ex);
+		}
+	}
+
+	/**
+	 * Releases the mapping of a segment straight away rather than when the buffer
+	 * is garbage collected. Falls back to the garbage collector if the runtime does
+	 * not allow it.
+	 *
+	 * @param segment the mapped segment
+	 */
+	private static void unmap(MappedByteBuffer segment) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), segment);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			// the mapping is released when the buffer is collected
+		}
+	}
+
+	private class HistoryIterator implements PrimitiveIterator.OfInt {
+		private int accNo;
+		private int[] marks;
+		private int block;
+		private int[] positions;
+		private int next;
+
+		private HistoryIterator(int accNo) {
+			this.accNo = accNo;
+			this.marks = new int[4];
+			int count = 0;
+			int walked = 0;
+			for (int position = head(accNo); position != NONE; position = previous(position, accNo)) {
+				if (walked % HISTORY_BLOCK == 0) {
+					if (count == marks.length) {
+						marks = Arrays.copyOf(marks, count * 2);
+					}
+					marks[count] = position;
+					count++;
+				}
+				walked++;
+			}
+			this.block = count;
+			this.positions = new int[Math.min(walked, HISTORY_BLOCK)];
+			this.next = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next > 0 || block > 0;
+		}
+
+		@Override
+		public int nextInt() {
+			if (next == 0) {
+				if (block == 0) {
+					throw new NoSuchElementException();
+				}
+				block--;
+				int position = marks[block];
+				while (next < HISTORY_BLOCK && position != NONE) {
+					positions[next] = position;
+					next++;
+					position = previous(position, accNo);
+				}
+			}
+			next--;
+			return positions[next];
+		}
+	}
+
+	private int head(int accNo) {
+		int slot = accNo - FIRST_ACCOUNT;
+		if (slot < 0 || slot >= heads.length) {
+			return NONE;
+		}
+		return heads[slot];
+	}
+
+	private void setHead(int accNo, int position) {
+		int slot = accNo - FIRST_ACCOUNT;
+		if (slot >= heads.length) {
+			int oldLength = heads.length;
+			heads = Arrays.copyOf(heads, Math.max(slot + 1, oldLength * 2));
+			Arrays.fill(heads, oldLength, heads.length, NONE);
+		}
+		heads[slot] = position;
+	}
+}
@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+public class NameIndex {
+
+	private static final int FIRST_ACCOUNT = 100000;
+	private static final int NONE = -1;
+	private static final int FIRST = 0;
+	private static final int LAST = 1;
+
+	private Map<String, Integer> termIds;
+	private String[] terms;
+	private int termCount;
+	private int[] sortedTerms;
+	private int sortedCount;
+	private int[][] postings;
+	private int[] postingCounts;
+	private int[] firstTerms;
+	private int[] lastTerms;
+
+	/**
+	 * Constructor for the NameIndex object. Names are dictionary encoded: each
+	 * distinct lower-cased name is stored once as a term with two posting lists,
+	 * the sorted numbers of the accounts carrying it as a first name and as a
+	 * surname, and each account keeps only the term IDs of its two names in
+	 * packed arrays. The terms are also kept in name order, so a prefix search
+	 * is a binary search for the range of terms followed by a merge of their
+	 * posting lists.
+	 */
+	public NameIndex() {
+		this.termIds = new HashMap<String, Integer>();
+		this.terms = new String[64];
+		this.termCount = 0;
+		this.sortedTerms = new int[64];
+		this.sortedCount = 0;
+		this.postings = new int[128][];
+		this.postingCounts = new int[128];
+		this.firstTerms = new int[1024];
+		this.lastTerms = new int[1024];
+		Arrays.fill(firstTerms, NONE);
+		Arrays.fill(lastTerms, NONE);
+	}
+
+	/**
+	 * Adds an account under its names.
+	 *
+	 * @param accNo the account number
+	 * @param first the first name of the person
+	 * @param last  the surname of the person
+	 */
+	public void add(int accNo, String first, String last) {
+		int slot = accNo - FIRST_ACCOUNT;
+		if (slot >= firstTerms.length) {
+			ensureCapacity(Math.max(accNo, FIRST_ACCOUNT + firstTerms.length * 2 - 1));
+		}
+		if (firstTerms[slot] != NONE) {
+			return;
+		}
+		firstTerms[slot] = term(first.toLowerCase());
+		lastTerms[slot] = term(last.toLowerCase());
+		insert(2 * firstTerms[slot] + FIRST, accNo);
+		insert(2 * lastTerms[slot] + LAST, accNo);
+	}
+
+	/**
+	 * Makes room for the accounts up to a number, so adding them never grows the
+	 * index.
+	 *
+	 * @param accNo the highest account number
+	 */
+	public void ensureCapacity(int accNo) {
+		int slots = accNo - FIRST_ACCOUNT + 1;
+		if (slots <= firstTerms.length) {
+			return;
+		}
+		int oldLength = firstTerms.length;
+		firstTerms = Arrays.copyOf(firstTerms, slots);
+		lastTerms = Arrays.copyOf(lastTerms, slots);
+		Arrays.fill(firstTerms, oldLength, slots, NONE);
+		Arrays.fill(lastTerms, oldLength, slots, NONE);
+	}
+
+	/**
+	 * Removes an account from under its names.
+	 *
+	 * @param accNo the account number
+	 * @param first the first name of the person
+	 * @param last  the surname of the person
+	 */
+	public void remove(int accNo, String first, String last) {
+		int slot = accNo - FIRST_ACCOUNT;
+		if (slot < 0 || slot >= firstTerms.length || firstTerms[slot] == NONE) {
+			return;
+		}
+		delete(2 * firstTerms[slot] + FIRST, accNo);
+		delete(2 * lastTerms[slot] + LAST, accNo);
+		firstTerms[slot] = NONE;
+		lastTerms[slot] = NONE;
+	}
+
+	/**
+	 * Returns one page of the accounts with a first name, surname or full name
+	 * ("first last" or "last first") starting with a prefix, in account number
+	 * order. Returns one more account than the page size if there are further
+	 * pages.
+	 *
+	 * @param prefix   the name prefix, which may contain spaces
+	 * @param page     the page number, starting at 1
+	 * @param pageSize the number of accounts per page
+	 * @return the matching account numbers
+	 */
+	public List<Integer> find(String prefix, int page, int pageSize) {
+		String from = prefix.toLowerCase();
+		sortTerms();
+		List<int[]> lists = new ArrayList<int[]>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		int low = lowerBound(from);
+		for (int i = low; i < sortedCount && terms[sortedTerms[i]].startsWith(from); i++) {
+			for (int side = FIRST; side <= LAST; side++) {
+				int list = 2 * sortedTerms[i] + side;
+				if (postingCounts[list] > 0) {
+					lists.add(postings[list]);
+					sizes.add(postingCounts[list]);
+				}
+			}
+		}
+		for (int space = from.indexOf(' '); space >= 0; space = from.indexOf(' ', space + 1)) {
+			Integer term = termIds.get(from.substring(0, space));
+			if (term == null) {
+				continue;
+			}
+			String rest = from.substring(space + 1);
+			int restLow = lowerBound(rest);
+			for (int side = FIRST; side <= LAST; side++) {
+				int other = LAST - side;
+				int exact = 2 * term + side;
+				// filter whichever side has fewer postings: the accounts with the
+				// exact name, or those whose other name starts with the rest
+				long otherPostings = 0;
+				for (int i = restLow; i < sortedCount && terms[sortedTerms[i]].startsWith(rest)
+						&& otherPostings <= postingCounts[exact]; i++) {
+					otherPostings += postingCounts[2 * sortedTerms[i] + other];
+				}
+				if (otherPostings > postingCounts[exact]) {
+					addMatches(lists, sizes, exact, other == FIRST ? firstTerms : lastTerms, rest, NONE);
+					continue;
+				}
+				for (int i = restLow; i < sortedCount && terms[sortedTerms[i]].startsWith(rest); i++) {
+					addMatches(lists, sizes, 2 * sortedTerms[i] + other, side == FIRST ? firstTerms : lastTerms,
+							null, term);
+				}
+			}
+		}
+		return merge(lists, sizes, (page - 1) * pageSize, pageSize + 1);
+	}
+
+	/**
+	 * Adds the accounts of a posting list whose other name either starts with a
+	 * prefix or is a given term to the lists to merge.
+	 */
+	private void addMatches(List<int[]> lists, List<Integer> sizes, int list, int[] otherTerms, String prefix,
+			int term) {
+		int[] matches = new int[postingCounts[list]];
+		int count = 0;
+		for (int i = 0; i < postingCounts[list]; i++) {
+			int accNo = postings[list][i];
+			int otherTerm = otherTerms[accNo - FIRST_ACCOUNT];
+			if (prefix == null ? otherTerm == term : terms[otherTerm].startsWith(prefix)) {
+				matches[count] = accNo;
+				count++;
+			}
+		}
+		if (count > 0) {
+			lists.add(matches);
+			sizes.add(count);
+		}
+	}
+
+	/**
+	 * Merges sorted account number lists, leaving out duplicates, and returns up to
+	 * limit of them after skipping the first skip.
+	 */
+	private static List<Integer> merge(final List<int[]> lists, final List<Integer> sizes, int skip, int limit) {
+		final int[] positions = new int[lists.size()];
+		PriorityQueue<Integer> heads = new PriorityQueue<Integer>(Math.max(1, lists.size()),
+				(a, b) -> Integer.compare(lists.get(a)[positions[a]], lists.get(b)[positions[b]]));
+		for (int i = 0; i < lists.size(); i++) {
+			heads.add(i);
+		}
+		List<Integer> found = new ArrayList<Integer>();
+		int previous = NONE;
+		while (!heads.isEmpty() && found.size() < limit) {
+			int list = heads.poll();
+			int accNo = lists.get(list)[positions[list]];
+			positions[list]++;
+			if (positions[list] < sizes.get(list)) {
+				heads.add(list);
+			}
+			if (accNo == previous) {
+				continue;
+			}
+			previous = accNo;
+			if (skip > 0) {
+				skip--;
+				continue;
+			}
+			found.add(accNo);
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the ID of a term, adding it to the dictionary if it is new.
+	 */
+	private int term(String name) {
+		Integer id = termIds.get(name);
+		if (id != null) {
+			return id;
+		}
+		if (termCount == terms.length) {
+			terms = Arrays.copyOf(terms, termCount * 2);
+			postings = Arrays.copyOf(postings, termCount * 4);
+			postingCounts = Arrays.copyOf(postingCounts, termCount * 4);
+		}
+		terms[termCount] = name;
+		termIds.put(name, termCount);
+		termCount++;
+		return termCount - 1;
+	}
+
+	/**
+	 * Brings the terms added since the last search into name order by sorting them
+	 * and merging them with the terms already sorted.
+	 */
+	private void sortTerms() {
+		if (sortedCount == termCount) {
+			return;
+		}
+		Integer[] added = new Integer[termCount - sortedCount];
+		for (int i = 0; i < added.length; i++) {
+			added[i] = sortedCount + i;
+		}
+		Arrays.sort(added, (a, b) -> terms[a].compareTo(terms[b]));
+		int[] merged = new int[Math.max(sortedTerms.length, termCount)];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < termCount; k++) {
+			if (j == added.length || (i < sortedCount && terms[sortedTerms[i]].compareTo(terms[added[j]]) <= 0)) {
+				merged[k] = sortedTerms[i];
+				i++;
+			} else {
+				merged[k] = added[j];
+				j++;
+			}
+		}
+		sortedTerms = merged;
+		sortedCount = termCount;
+	}
+
+	/**
+	 * Returns the position of the first sorted term not before a name.
+	 */
+	private int lowerBound(String name) {
+		int low = 0;
+		int high = sortedCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (terms[sortedTerms[mid]].compareTo(name) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds an account number to a posting list, keeping it sorted. Account numbers
+	 * usually arrive in increasing order, so this is normally an append.
+	 */
+	private void insert(int list, int accNo) {
+		int[] accNos = postings[list];
+		int count = postingCounts[list];
+		if (accNos == null) {
+			accNos = new int[2];
+		} else if (count == accNos.length) {
+			accNos = Arrays.copyOf(accNos, count * 2);
+		}
+		int at = count;
+		if (count > 0 && accNos[count - 1] > accNo) {
+			at = -Arrays.binarySearch(accNos, 0, count, accNo) - 1;
+			System.arraycopy(accNos, at, accNos, at + 1, count - at);
+		}
+		accNos[at] = accNo;
+		postings[list] = accNos;
+		postingCounts[list] = count + 1;
+	}
+
+	private void delete(int list, int accNo) {
+		int count = postingCounts[list];
+		int at = Arrays.binarySearch(postings[list], 0, count, accNo);
+		if (at < 0) {
+			return;
+		}
+		System.arraycopy(postings[list], at + 1, postings[list], at, count - at - 1);
+		postingCounts[list] = count - 1;
+	}
+}
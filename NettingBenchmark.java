@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+public class NettingBenchmark {
+
+	public static final int FIRST_ACCOUNT = 100000;
+
+	private int pairs;
+	private int payments;
+	private int window;
+	private long seed;
+
+	/**
+	 * Constructor for the NettingBenchmark object, with the default workload of
+	 * 2000000 payments back and forth over 100 account pairs, settled every 10000
+	 * payments.
+	 */
+	public NettingBenchmark() {
+		this.pairs = 100;
+		this.payments = 2000000;
+		this.window = 10000;
+		this.seed = 42;
+	}
+
+	/**
+	 * Reads the workload from command line options. Returns false if an option is
+	 * not recognised.
+	 *
+	 * @param args the command line options
+	 * @return whether the options were valid
+	 */
+	public boolean configure(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--pairs":
+					pairs = Integer.parseInt(value);
+					break;
+				case "--payments":
+					payments = Integer.parseInt(value);
+					break;
+				case "--window":
+					window = Integer.parseInt(value);
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				default:
+					return false;
+			}
+		}
+		return args.length % 2 == 0 && pairs > 0 && payments > 0 && window > 0;
+	}
+
+	/**
+	 * Runs the same payment stream without and with netting and displays the
+	 * ledger each run produced.
+	 */
+	public void run() {
+		System.out.printf("%d payments over %d account pairs, settled every %d payments%n", payments, pairs, window);
+		measure(false);
+		measure(true);
+	}
+
+	private void measure(boolean netted) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Banker banker = new Banker();
+		for (int i = 0; i < 2 * pairs; i++) {
+			banker.createAccount("netting", Integer.toString(i), Banker.DEFAULT);
+		}
+		if (netted) {
+			banker.netting(Long.MAX_VALUE);
+		}
+		Random random = new Random(seed);
+		long start = System.nanoTime();
+		for (int i = 0; i < payments; i++) {
+			int pair = random.nextInt(pairs);
+			int a = FIRST_ACCOUNT + 2 * pair;
+			int b = a + 1;
+			int amount = 1 + random.nextInt(100);
+			if (random.nextBoolean()) {
+				banker.pay(a, b, amount);
+			} else {
+				banker.pay(b, a, amount);
+			}
+			if (netted && (i + 1) % window == 0) {
+				banker.settle();
+			}
+		}
+		if (netted) {
+			banker.settle();
+		}
+		long elapsed = System.nanoTime() - start;
+		long archived = archivedBytes(banker);
+		long total = 0;
+		for (BankAccount account : banker.getAccounts().values()) {
+			total += account.getBalance();
+		}
+		boolean valid = Transaction.verify(banker.getTransactions());
+		System.setOut(out);
+		System.out.printf("%-10s %.2fs  %d transactions  archive %.1f MB  total conserved: %s  ledger valid: %s%n",
+				netted ? "netting" : "direct", elapsed / 1e9, banker.getTransactions().size(), archived / 1048576.0,
+				total == 2L * pairs * Banker.DEFAULT ? "yes" : "no", valid ? "yes" : "no");
+	}
+
+	private static long archivedBytes(Banker banker) {
+		try {
+			File ledger = File.createTempFile("netting-ledger", ".txt");
+			File accounts = File.createTempFile("netting-accounts", ".txt");
+			banker.archive(ledger.getPath(), accounts.getPath());
+			long bytes = ledger.length();
+			ledger.delete();
+			accounts.delete();
+			return bytes;
+		} catch (java.io.IOException ex) {
+			return -1;
+		}
+	}
+
+	public static void main(String[] args) {
+		NettingBenchmark benchmark = new NettingBenchmark();
+		if (!benchmark.configure(args)) {
+			System.out.println(
+					"usage: NettingBenchmark [--pairs <n>] [--payments <n>] [--window <payments>] [--seed <n>]");
+			return;
+		}
+		benchmark.run();
+	}
+}
@@ -0,0 +1,231 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class NettingEngine {
+
+	private static final int NETTED_OUT = 0;
+	private static final int DISCARDED = -1;
+	private static final int REJECTED = -2;
+
+	private long window;
+	private long windowStart;
+	private Map<Long, Long> pairs;
+	private Map<Integer, Long> positions;
+	private int[] senders;
+	private int[] receivers;
+	private int[] amounts;
+	private int[] settledIn;
+	private int requests;
+	private int firstPending;
+
+	/**
+	 * Constructor for the NettingEngine object. Payments accepted within one window
+	 * are accumulated per account pair and settled together as net transfers.
+	 *
+	 * @param window      the length of a settlement window in milliseconds
+	 * @param windowStart the time the first window starts
+	 */
+	public NettingEngine(long window, long windowStart) {
+		this.window = window;
+		this.windowStart = windowStart;
+		this.pairs = new LinkedHashMap<Long, Long>();
+		this.positions = new LinkedHashMap<Integer, Long>();
+		this.senders = new int[1024];
+		this.receivers = new int[1024];
+		this.amounts = new int[1024];
+		this.settledIn = new int[1024];
+		this.requests = 0;
+		this.firstPending = 0;
+	}
+
+	/**
+	 * Changes the window length and starts a new window.
+	 *
+	 * @param window      the length of a settlement window in milliseconds
+	 * @param windowStart the time the new window starts
+	 */
+	public void setWindow(long window, long windowStart) {
+		this.window = window;
+		this.windowStart = windowStart;
+	}
+
+	/**
+	 * Returns true if the current window has ended.
+	 *
+	 * @param now the current time in milliseconds
+	 * @return whether the window is due for settlement
+	 */
+	public boolean due(long now) {
+		return now - windowStart >= window;
+	}
+
+	/**
+	 * Returns the net change in balance that settling the current window would
+	 * cause for an account.
+	 *
+	 * @param accNo the account number
+	 * @return the net position
+	 */
+	public long position(int accNo) {
+		Long position = positions.get(accNo);
+		return position == null ? 0 : position;
+	}
+
+	/**
+	 * Accepts a payment into the current window and returns its request ID.
+	 * Returns 0 without accepting it if the net transfer between the two accounts
+	 * would no longer fit in one leg.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @param amount   the amount to be transferred
+	 * @return the request ID, 0 if rejected
+	 */
+	public int submit(int sender, int receiver, int amount) {
+		long low = Math.min(sender, receiver);
+		long high = Math.max(sender, receiver);
+		long pair = (low << 32) | high;
+		Long net = pairs.get(pair);
+		if (Math.abs((net == null ? 0 : net) + (sender == low ? (long) amount : (long) -amount)) > Integer.MAX_VALUE) {
+			return 0;
+		}
+		if (requests == amounts.length) {
+			senders = Arrays.copyOf(senders, requests * 2);
+			receivers = Arrays.copyOf(receivers, requests * 2);
+			amounts = Arrays.copyOf(amounts, requests * 2);
+			settledIn = Arrays.copyOf(settledIn, requests * 2);
+		}
+		senders[requests] = sender;
+		receivers[requests] = receiver;
+		amounts[requests] = amount;
+		settledIn[requests] = 0;
+		requests++;
+		pairs.merge(pair, sender == low ? (long) amount : (long) -amount, Long::sum);
+		positions.merge(sender, (long) -amount, Long::sum);
+		positions.merge(receiver, (long) amount, Long::sum);
+		return requests;
+	}
+
+	/**
+	 * Returns the number of requests in the current window.
+	 *
+	 * @return the number of pending requests
+	 */
+	public int pending() {
+		return requests - firstPending;
+	}
+
+	/**
+	 * Returns the net transfers of the current window as {senders, receivers,
+	 * amounts}. Pairs whose payments cancel out are left out.
+	 *
+	 * @return the net legs
+	 */
+	public int[][] netLegs() {
+		int legs = 0;
+		for (long net : pairs.values()) {
+			if (net != 0) {
+				legs++;
+			}
+		}
+		int[][] result = new int[3][legs];
+		int i = 0;
+		for (Map.Entry<Long, Long> pair : pairs.entrySet()) {
+			long net = pair.getValue();
+			if (net == 0) {
+				continue;
+			}
+			int low = (int) (pair.getKey() >>> 32);
+			int high = (int) (long) pair.getKey();
+			result[0][i] = net > 0 ? low : high;
+			result[1][i] = net > 0 ? high : low;
+			result[2][i] = (int) Math.abs(net);
+			i++;
+		}
+		return result;
+	}
+
+	/**
+	 * Closes the current window, recording which transaction settled its requests,
+	 * and starts a new one. Requests between a pair of accounts whose payments
+	 * cancelled out are recorded as netted out, as no transaction includes them.
+	 *
+	 * @param transactionId the ID of the settling transaction, 0 if all netted out
+	 * @param now           the current time in milliseconds
+	 */
+	public void settled(int transactionId, long now) {
+		for (int i = firstPending; i < requests; i++) {
+			long low = Math.min(senders[i], receivers[i]);
+			long high = Math.max(senders[i], receivers[i]);
+			settledIn[i] = pairs.get((low << 32) | high) == 0 ? NETTED_OUT : transactionId;
+		}
+		close(now);
+	}
+
+	/**
+	 * Closes the current window without settling it, for when its requests no
+	 * longer apply to the accounts, and starts a new one. Returns the number of
+	 * requests dropped.
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the number of discarded requests
+	 */
+	public int discard(long now) {
+		return drop(DISCARDED, now);
+	}
+
+	/**
+	 * Closes the current window after its settlement failed, so the same
+	 * settlement is not retried every window, and starts a new one. Returns the
+	 * number of requests dropped.
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the number of rejected requests
+	 */
+	public int reject(long now) {
+		return drop(REJECTED, now);
+	}
+
+	private int drop(int status, long now) {
+		int dropped = pending();
+		Arrays.fill(settledIn, firstPending, requests, status);
+		close(now);
+		return dropped;
+	}
+
+	private void close(long now) {
+		firstPending = requests;
+		pairs.clear();
+		positions.clear();
+		windowStart = now;
+	}
+
+	/**
+	 * Returns the formatted string of a payment request. Returns null if there is
+	 * no such request.
+	 *
+	 * @param id the request ID
+	 * @return the formatted String
+	 */
+	public String request(int id) {
+		if (id < 1 || id > requests) {
+			return null;
+		}
+		int i = id - 1;
+		String status;
+		if (i >= firstPending) {
+			status = "pending";
+		} else if (settledIn[i] == NETTED_OUT) {
+			status = "netted out";
+		} else if (settledIn[i] == DISCARDED) {
+			status = "discarded on recovery";
+		} else if (settledIn[i] == REJECTED) {
+			status = "rejected";
+		} else {
+			status = "settled in " + Integer.toString(settledIn[i]);
+		}
+		return Integer.toString(id) + ": " + Integer.toString(senders[i]) + " -> " + Integer.toString(receivers[i])
+				+ " | $" + Integer.toString(amounts[i]) + " | " + status;
+	}
+}
@@ -0,0 +1,68 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PairIndex {
+
+	private static final int INITIAL_CAPACITY = 2;
+	private static final int[] NONE = new int[0];
+	private Map<Long, Pair> pairs;
+
+	/**
+	 * Constructor for the PairIndex object. The index keeps, for every (sender,
+	 * receiver) pair, the ids of the transactions with a leg from sender to
+	 * receiver as a plain int array in ID order.
+	 */
+	public PairIndex() {
+		this.pairs = new HashMap<Long, Pair>();
+	}
+
+	/**
+	 * Records a transaction leg from sender to receiver.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @param id       the transaction ID
+	 */
+	public void add(int sender, int receiver, int id) {
+		long key = key(sender, receiver);
+		Pair p = pairs.get(key);
+		if (p == null) {
+			p = new Pair();
+			pairs.put(key, p);
+		}
+		if (p.size > 0 && p.ids[p.size - 1] == id) {
+			return;
+		}
+		if (p.size == p.ids.length) {
+			p.ids = Arrays.copyOf(p.ids, p.size * 2);
+		}
+		p.ids[p.size] = id;
+		p.size++;
+	}
+
+	/**
+	 * Returns the ids of the transactions with a leg from sender to receiver, in ID
+	 * order.
+	 *
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @return the transaction ids, empty if none
+	 */
+	public int[] get(int sender, int receiver) {
+		Pair p = pairs.get(key(sender, receiver));
+		if (p == null) {
+			return NONE;
+		}
+		return Arrays.copyOf(p.ids, p.size);
+	}
+
+	private static long key(int sender, int receiver) {
+		return ((long) sender << 32) | (receiver & 0xffffffffL);
+	}
+
+	private static class Pair {
+		private int[] ids = new int[INITIAL_CAPACITY];
+		private int size = 0;
+	}
+}
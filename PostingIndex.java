@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PostingIndex {
+
+	private static final int INITIAL_CAPACITY = 4;
+	private Map<Integer, Postings> postings;
+
+	/**
+	 * Constructor for the PostingIndex object. The index keeps, for every account,
+	 * the ids of the ledger entries it took part in as a plain int array.
+	 */
+	public PostingIndex() {
+		this.postings = new HashMap<Integer, Postings>();
+	}
+
+	/**
+	 * Records that an account took part in a transaction.
+	 *
+	 * @param accNo the account number
+	 * @param id    the transaction ID
+	 */
+	public void add(int accNo, int id) {
+		Postings p = postings.get(accNo);
+		if (p == null) {
+			p = new Postings();
+			postings.put(accNo, p);
+		}
+		if (p.size > 0 && p.ids[p.size - 1] == id) {
+			return;
+		}
+		if (p.size == p.ids.length) {
+			p.ids = Arrays.copyOf(p.ids, p.size * 2);
+		}
+		p.ids[p.size] = id;
+		p.size++;
+	}
+
+	/**
+	 * Returns the number of transactions an account took part in.
+	 *
+	 * @param accNo the account number
+	 * @return the number of postings
+	 */
+	public int size(int accNo) {
+		Postings p = postings.get(accNo);
+		return p == null ? 0 : p.size;
+	}
+
+	/**
+	 * Returns the position of the first posting of an account with a transaction
+	 * ID greater than the given one.
+	 *
+	 * @param accNo the account number
+	 * @param id    the transaction ID
+	 * @return the position, equal to size if there is none
+	 */
+	public int after(int accNo, int id) {
+		Postings p = postings.get(accNo);
+		if (p == null) {
+			return 0;
+		}
+		int i = Arrays.binarySearch(p.ids, 0, p.size, id);
+		return i < 0 ? -i - 1 : i + 1;
+	}
+
+	/**
+	 * Returns the transaction ID of a posting of an account.
+	 *
+	 * @param accNo    the account number
+	 * @param position the position of the posting, starting at 0
+	 * @return the transaction ID
+	 */
+	public int get(int accNo, int position) {
+		return postings.get(accNo).ids[position];
+	}
+
+	/**
+	 * Builds the transaction history of an account from the ledger.
+	 *
+	 * @param accNo  the account number
+	 * @param ledger the ledger, indexed by transaction ID - 1
+	 * @return the transaction history, empty if none
+	 */
+	public List<Transaction> materialize(int accNo, List<Transaction> ledger) {
+		Postings p = postings.get(accNo);
+		if (p == null) {
+			return new ArrayList<Transaction>();
+		}
+		List<Transaction> history = new ArrayList<Transaction>(p.size);
+		for (int i = 0; i < p.size; i++) {
+			history.add(ledger.get(p.ids[i] - 1));
+		}
+		return history;
+	}
+
+	private static class Postings {
+		private int[] ids = new int[INITIAL_CAPACITY];
+		private int size = 0;
+	}
+}
@@ -0,0 +1,66 @@
+public class StandingOrder {
+
+	private int id;
+	private int sender;
+	private int receiver;
+	private int amount;
+	private int interval;
+	private long nextDue;
+	private boolean cancelled;
+
+	/**
+	 * Constructor for the StandingOrder object.
+	 *
+	 * @param id       the ID of the order
+	 * @param sender   the account number of the sender
+	 * @param receiver the account number of the receiver
+	 * @param amount   the amount paid each time
+	 * @param interval the number of ticks between payments
+	 * @param nextDue  the tick of the next payment
+	 */
+	public StandingOrder(int id, int sender, int receiver, int amount, int interval, long nextDue) {
+		this.id = id;
+		this.sender = sender;
+		this.receiver = receiver;
+		this.amount = amount;
+		this.interval = interval;
+		this.nextDue = nextDue;
+		this.cancelled = false;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getSender() {
+		return sender;
+	}
+
+	public int getReceiver() {
+		return receiver;
+	}
+
+	public int getAmount() {
+		return amount;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public long getNextDue() {
+		return nextDue;
+	}
+
+	public void setNextDue(long nextDue) {
+		this.nextDue = nextDue;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void cancel() {
+		this.cancelled = true;
+	}
+}
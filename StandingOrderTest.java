@@ -0,0 +1,274 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StandingOrderTest {
+
+	public static final int FIRST_ACCOUNT = 100000;
+	public static final long START = 1700000123L;
+	public static final int OPENING = 1000000000;
+
+	private ManualClock clock;
+	private Banker banker;
+	private ByteArrayOutputStream output;
+
+	/**
+	 * A clock that only moves when told to, in whole seconds.
+	 */
+	private static class ManualClock extends Clock {
+
+		private long seconds;
+
+		ManualClock(long seconds) {
+			this.seconds = seconds;
+		}
+
+		void set(long seconds) {
+			this.seconds = seconds;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochSecond(seconds);
+		}
+	}
+
+	/**
+	 * Starts each test with a new Banker on a clock stopped at START, with
+	 * accounts accounts and its output captured.
+	 *
+	 * @param accounts the number of accounts to create
+	 */
+	private void setUp(int accounts) {
+		output = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(output));
+		clock = new ManualClock(START);
+		banker = newBanker();
+		for (int i = 0; i < accounts; i++) {
+			banker.createAccount("order", Integer.toString(i), OPENING);
+		}
+	}
+
+	private Banker newBanker() {
+		Banker newBanker = new Banker();
+		newBanker.setClock(clock);
+		return newBanker;
+	}
+
+	/**
+	 * Moves the clock to a time and runs the standing orders due by then.
+	 *
+	 * @param seconds the time in seconds since the epoch
+	 */
+	private void runAt(long seconds) {
+		clock.set(seconds);
+		banker.runStandingOrders();
+	}
+
+	/**
+	 * Checks how many times the order paying into an account has been paid, from
+	 * the account's balance and an amount of 1 per payment.
+	 *
+	 * @param receiver the receiving account
+	 * @param expected the expected number of payments
+	 */
+	private void assertPaid(int receiver, long expected) {
+		long paid = banker.getAccounts().get(receiver).getBalance() - (long) OPENING;
+		check(paid == expected, "account " + receiver + " at +" + (clock.millis() / 1000 - START) + "s paid " + paid
+				+ " times, expected " + expected);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * Each interval fires exactly on its due tick and not the tick before, for
+	 * intervals at every level of the wheel and beyond it.
+	 */
+	public void firesOnDueTickAtEveryLevel() {
+		int[] intervals = { 1, 7, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 262145, 16777215, 16777216,
+				16777217, 20000000, 1000000000 };
+		for (int interval : intervals) {
+			setUp(2);
+			banker.schedule(FIRST_ACCOUNT, FIRST_ACCOUNT + 1, 1, interval);
+			runAt(START + interval - 1);
+			assertPaid(FIRST_ACCOUNT + 1, 0);
+			runAt(START + interval);
+			assertPaid(FIRST_ACCOUNT + 1, 1);
+			runAt(START + 2L * interval - 1);
+			assertPaid(FIRST_ACCOUNT + 1, 1);
+			runAt(START + 2L * interval);
+			assertPaid(FIRST_ACCOUNT + 1, 2);
+		}
+	}
+
+	/**
+	 * Orders on different levels of the wheel keep their own schedules while the
+	 * wheel cascades between them, whether the clock moves a tick or a long way at
+	 * a time.
+	 */
+	public void mixedLevelsKeepSchedule() {
+		int[] intervals = { 5, 100, 5000, 300000 };
+		setUp(2 * intervals.length);
+		for (int i = 0; i < intervals.length; i++) {
+			banker.schedule(FIRST_ACCOUNT + 2 * i, FIRST_ACCOUNT + 2 * i + 1, 1, intervals[i]);
+		}
+		long[] steps = { 1, 1, 1, 3, 4, 59, 61, 997, 4095, 20001, 262145, 1, 12345, 60000 };
+		long now = START;
+		for (long step : steps) {
+			now += step;
+			runAt(now);
+			for (int i = 0; i < intervals.length; i++) {
+				assertPaid(FIRST_ACCOUNT + 2 * i + 1, (now - START) / intervals[i]);
+			}
+		}
+	}
+
+	/**
+	 * A long idle period is skipped in one step rather than one tick at a time.
+	 */
+	public void idlePeriodIsSkipped() {
+		setUp(2);
+		banker.schedule(FIRST_ACCOUNT, FIRST_ACCOUNT + 1, 1, 1000000000);
+		long begin = System.nanoTime();
+		runAt(START + 999999999L);
+		runAt(START + 1000000000L);
+		long elapsed = System.nanoTime() - begin;
+		assertPaid(FIRST_ACCOUNT + 1, 1);
+		check(elapsed < 1000000000L, "31 idle years took " + elapsed / 1000000 + " ms");
+	}
+
+	/**
+	 * A cancelled order is never paid, and the others still are.
+	 */
+	public void cancelledOrderIsNotPaid() {
+		setUp(4);
+		banker.schedule(FIRST_ACCOUNT, FIRST_ACCOUNT + 1, 1, 10);
+		banker.schedule(FIRST_ACCOUNT + 2, FIRST_ACCOUNT + 3, 1, 10);
+		runAt(START + 10);
+		banker.unschedule(1);
+		runAt(START + 100);
+		assertPaid(FIRST_ACCOUNT + 1, 1);
+		assertPaid(FIRST_ACCOUNT + 3, 10);
+		output.reset();
+		banker.unschedule(1);
+		check(output.toString().trim().equals("no such order"), "cancelled twice: " + output);
+	}
+
+	/**
+	 * Standing orders are archived with the ledger and keep their due times when
+	 * recovered into a new Banker.
+	 */
+	public void ordersSurviveArchiveAndRecover() throws IOException {
+		setUp(4);
+		banker.schedule(FIRST_ACCOUNT, FIRST_ACCOUNT + 1, 1, 10);
+		banker.schedule(FIRST_ACCOUNT + 2, FIRST_ACCOUNT + 3, 1, 300000);
+		runAt(START + 15);
+		File ledger = File.createTempFile("orders-ledger", ".txt");
+		File accounts = File.createTempFile("orders-accounts", ".txt");
+		try {
+			banker.archive(ledger.getPath(), accounts.getPath());
+			banker = newBanker();
+			banker.recover(ledger.getPath(), accounts.getPath());
+			assertPaid(FIRST_ACCOUNT + 1, 1);
+			runAt(START + 19);
+			assertPaid(FIRST_ACCOUNT + 1, 1);
+			runAt(START + 20);
+			assertPaid(FIRST_ACCOUNT + 1, 2);
+			runAt(START + 299999);
+			assertPaid(FIRST_ACCOUNT + 3, 0);
+			runAt(START + 300000);
+			assertPaid(FIRST_ACCOUNT + 3, 1);
+			assertPaid(FIRST_ACCOUNT + 1, 30000);
+		} finally {
+			ledger.delete();
+			accounts.delete();
+			new File(accounts.getPath() + ".orders").delete();
+		}
+	}
+
+	/**
+	 * A recovered order whose account no longer exists is cancelled and reported
+	 * instead of failing the payments due with it.
+	 */
+	public void orderForMissingAccountIsCancelled() throws IOException {
+		setUp(4);
+		banker.schedule(FIRST_ACCOUNT, FIRST_ACCOUNT + 1, 1, 10);
+		File ledger = File.createTempFile("orders-ledger", ".txt");
+		File accounts = File.createTempFile("orders-accounts", ".txt");
+		File orders = new File(accounts.getPath() + ".orders");
+		try {
+			banker.archive(ledger.getPath(), accounts.getPath());
+			try (FileWriter writer = new FileWriter(orders, true)) {
+				writer.write("2, 100002, 999999, 1, 10, " + Long.toString(START + 10) + "\n");
+			}
+			banker = newBanker();
+			banker.recover(ledger.getPath(), accounts.getPath());
+			output.reset();
+			runAt(START + 30);
+			assertPaid(FIRST_ACCOUNT + 1, 3);
+			assertPaid(FIRST_ACCOUNT + 2, 0);
+			check(output.toString().contains("standing order 2 cancelled - no such account"),
+					"missing account not reported: " + output);
+			output.reset();
+			banker.unschedule(2);
+			check(output.toString().trim().equals("no such order"), "order still scheduled: " + output);
+		} finally {
+			ledger.delete();
+			accounts.delete();
+			orders.delete();
+		}
+	}
+
+	/**
+	 * Runs every test and exits with status 1 if any of them failed.
+	 *
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		PrintStream out = System.out;
+		StandingOrderTest test = new StandingOrderTest();
+		List<String> failures = new ArrayList<String>();
+		String[] names = { "firesOnDueTickAtEveryLevel", "mixedLevelsKeepSchedule", "idlePeriodIsSkipped",
+				"cancelledOrderIsNotPaid", "ordersSurviveArchiveAndRecover", "orderForMissingAccountIsCancelled" };
+		for (String name : names) {
+			String result;
+			try {
+				StandingOrderTest.class.getMethod(name).invoke(test);
+				result = "PASS " + name;
+			} catch (ReflectiveOperationException ex) {
+				Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+				result = "FAIL " + name + ": " + cause;
+				failures.add(name);
+			}
+			System.setOut(out);
+			System.out.println(result);
+		}
+		System.out.println(Integer.toString(names.length - failures.size()) + "/" + Integer.toString(names.length)
+				+ " passed");
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+	}
+}
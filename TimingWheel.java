@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimingWheel {
+
+	public static final int SLOT_BITS = 6;
+	public static final int SLOTS = 1 << SLOT_BITS;
+	public static final int LEVELS = 4;
+	private List<List<StandingOrder>> slots;
+	private List<StandingOrder> overflow;
+	private long currentTick;
+	private int size;
+
+	/**
+	 * Constructor for the TimingWheel object. The wheel has LEVELS levels of SLOTS
+	 * slots each; level n holds orders due within the current block of
+	 * SLOTS^(n+1) ticks, and its slots are moved down a level as time reaches
+	 * them, so scheduling and firing an order both take constant time. Orders due
+	 * beyond the current block of SLOTS^LEVELS ticks wait in an overflow list until
+	 * the wheel reaches their block.
+	 *
+	 * @param currentTick the current tick
+	 */
+	public TimingWheel(long currentTick) {
+		this.slots = new ArrayList<List<StandingOrder>>();
+		for (int i = 0; i < LEVELS * SLOTS; i++) {
+			slots.add(new ArrayList<StandingOrder>());
+		}
+		this.overflow = new ArrayList<StandingOrder>();
+		this.currentTick = currentTick;
+		this.size = 0;
+	}
+
+	public long getCurrentTick() {
+		return currentTick;
+	}
+
+	/**
+	 * Returns the number of orders in the wheel.
+	 *
+	 * @return the number of orders
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an order to the wheel. Orders due at or before the current tick fire on
+	 * the next tick.
+	 *
+	 * @param order the standing order
+	 */
+	public void schedule(StandingOrder order) {
+		if (order.getNextDue() <= currentTick) {
+			order.setNextDue(currentTick + 1);
+		}
+		insert(order);
+		size++;
+	}
+
+	/**
+	 * Marks an order cancelled. The order stays in its slot, where it is dropped
+	 * when the slot fires or moves down a level, so cancelling takes constant time.
+	 *
+	 * @param order the standing order
+	 */
+	public void cancel(StandingOrder order) {
+		if (!order.isCancelled()) {
+			order.cancel();
+			size--;
+		}
+	}
+
+	/**
+	 * Moves the wheel forward to the next tick on which orders are due, or on which
+	 * a slot holding orders moves down a level, and returns the orders due on it.
+	 * Stops at the given tick if nothing happens before then, so an idle period
+	 * costs one call rather than one call per tick.
+	 *
+	 * @param until the latest tick to move to
+	 * @return the due orders, empty if none
+	 */
+	public List<StandingOrder> advance(long until) {
+		long next = nextEvent();
+		if (next > until) {
+			currentTick = Math.max(currentTick, until);
+			return new ArrayList<StandingOrder>();
+		}
+		currentTick = next - 1;
+		return advance();
+	}
+
+	/**
+	 * Moves the wheel forward by one tick and returns the orders due on it.
+	 *
+	 * @return the due orders
+	 */
+	public List<StandingOrder> advance() {
+		currentTick++;
+		if ((currentTick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0 && !overflow.isEmpty()) {
+			List<StandingOrder> waiting = overflow;
+			overflow = new ArrayList<StandingOrder>();
+			for (StandingOrder order : waiting) {
+				insert(order);
+			}
+		}
+		for (int level = LEVELS - 1; level > 0; level--) {
+			if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+				continue;
+			}
+			int index = level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+			List<StandingOrder> cascaded = slots.get(index);
+			slots.set(index, new ArrayList<StandingOrder>());
+			for (StandingOrder order : cascaded) {
+				insert(order);
+			}
+		}
+		int index = (int) (currentTick & (SLOTS - 1));
+		List<StandingOrder> slot = slots.get(index);
+		if (slot.isEmpty()) {
+			return slot;
+		}
+		slots.set(index, new ArrayList<StandingOrder>());
+		List<StandingOrder> fired = new ArrayList<StandingOrder>(slot.size());
+		for (StandingOrder order : slot) {
+			if (!order.isCancelled()) {
+				fired.add(order);
+			}
+		}
+		size -= fired.size();
+		return fired;
+	}
+
+	/**
+	 * Returns the first tick after the current one on which orders fire or a slot
+	 * holding orders is moved down a level, or Long.MAX_VALUE if the wheel is
+	 * empty.
+	 */
+	private long nextEvent() {
+		long next = Long.MAX_VALUE;
+		if (!overflow.isEmpty()) {
+			long span = 1L << (SLOT_BITS * LEVELS);
+			next = (currentTick / span + 1) * span;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = SLOT_BITS * level;
+			long blockStart = currentTick >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+			for (int digit = (int) ((currentTick >>> shift) & (SLOTS - 1)) + 1; digit < SLOTS; digit++) {
+				if (!slots.get(level * SLOTS + digit).isEmpty()) {
+					next = Math.min(next, blockStart + ((long) digit << shift));
+					break;
+				}
+			}
+		}
+		return next;
+	}
+
+	private void insert(StandingOrder order) {
+		if (order.isCancelled()) {
+			return;
+		}
+		locate(order.getNextDue()).add(order);
+	}
+
+	/**
+	 * Returns the slot, or the overflow list, that holds orders due on a tick.
+	 */
+	private List<StandingOrder> locate(long due) {
+		int level = 0;
+		while (level < LEVELS && (due >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+			level++;
+		}
+		if (level == LEVELS) {
+			return overflow;
+		}
+		int slot = (int) ((due >>> (SLOT_BITS * level)) & (SLOTS - 1));
+		return slots.get(level * SLOTS + slot);
+	}
+}
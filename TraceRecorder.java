@@ -0,0 +1,152 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+public class TraceRecorder {
+
+	public static final int MAGIC = 0x42545243;
+	public static final int VERSION = 3;
+
+	private DataOutputStream out;
+	private long startNanos;
+	private PrintStream console;
+	private OutputDigest digest;
+	private long commandStart;
+
+	/**
+	 * Constructor for the TraceRecorder object. The trace starts with a header
+	 * holding the wall clock time, followed by one record per command: its start
+	 * on the monotonic clock relative to the header, how long it took, the time on
+	 * the Banker clock it ran at, the command line and the length and CRC32 of
+	 * everything it displayed. The output itself is not kept, so a record stays
+	 * small however much a command displays. Background ticks that paid standing
+	 * orders or settled netting are recorded as commands without a command line.
+	 *
+	 * @param file the name of the trace file
+	 * @throws IOException if the file cannot be created
+	 */
+	public TraceRecorder(String file) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		this.startNanos = System.nanoTime();
+		this.digest = new OutputDigest();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		out.flush();
+	}
+
+	/**
+	 * Starts digesting what is displayed, while still passing it on to the
+	 * console.
+	 */
+	public void begin() {
+		console = System.out;
+		digest.reset();
+		final PrintStream tee = console;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				tee.write(b);
+				digest.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				tee.write(b, off, len);
+				digest.write(b, off, len);
+			}
+		}, true));
+		commandStart = System.nanoTime();
+	}
+
+	/**
+	 * Stops digesting and appends the command with its outcome to the trace.
+	 *
+	 * @param command the command line, or null for a tick
+	 * @param millis  the time on the Banker clock the command ran at
+	 */
+	public void end(String command, long millis) {
+		long duration = System.nanoTime() - commandStart;
+		System.out.flush();
+		System.setOut(console);
+		try {
+			out.writeLong(commandStart - startNanos);
+			out.writeLong(duration);
+			out.writeLong(millis);
+			writeString(out, command);
+			out.writeLong(digest.getLength());
+			out.writeInt(digest.getChecksum());
+			out.flush();
+		} catch (IOException ex) {
+			System.out.println("trace write failed");
+		}
+	}
+
+	/**
+	 * Stops digesting without adding anything to the trace.
+	 */
+	public void discard() {
+		System.out.flush();
+		System.setOut(console);
+	}
+
+	/**
+	 * Closes the trace file.
+	 */
+	public void close() {
+		try {
+			out.close();
+		} catch (IOException ex) {
+			System.out.println("trace write failed");
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Counts the bytes written to it and keeps their CRC32, without storing them.
+	 */
+	public static class OutputDigest extends OutputStream {
+
+		private CRC32 crc = new CRC32();
+		private long length;
+
+		@Override
+		public void write(int b) {
+			crc.update(b);
+			length++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			crc.update(b, off, len);
+			length += len;
+		}
+
+		public void reset() {
+			crc.reset();
+			length = 0;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public int getChecksum() {
+			return (int) crc.getValue();
+		}
+	}
+}
@@ -0,0 +1,301 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TraceReplayer {
+
+	public static final int MAX_DIFFERENCES_SHOWN = 10;
+
+	private long wallMillis;
+	private List<Long> starts;
+	private List<Long> durations;
+	private List<Long> millis;
+	private List<String> commands;
+	private List<Long> lengths;
+	private List<Integer> checksums;
+	private Path scratch;
+	private Map<String, String> scratchFiles;
+
+	/**
+	 * Constructor for the TraceReplayer object. Reads the whole trace written by
+	 * TraceRecorder.
+	 *
+	 * @param file the name of the trace file
+	 * @throws IOException if the file cannot be read or is not a trace
+	 */
+	public TraceReplayer(String file) throws IOException {
+		this.starts = new ArrayList<Long>();
+		this.durations = new ArrayList<Long>();
+		this.millis = new ArrayList<Long>();
+		this.commands = new ArrayList<String>();
+		this.lengths = new ArrayList<Long>();
+		this.checksums = new ArrayList<Integer>();
+		this.scratchFiles = new HashMap<String, String>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION) {
+				throw new IOException("not a trace file");
+			}
+			wallMillis = in.readLong();
+			while (true) {
+				long start;
+				try {
+					start = in.readLong();
+				} catch (EOFException ex) {
+					break;
+				}
+				starts.add(start);
+				durations.add(in.readLong());
+				millis.add(in.readLong());
+				commands.add(readString(in));
+				lengths.add(in.readLong());
+				checksums.add(in.readInt());
+			}
+		}
+	}
+
+	/**
+	 * Runs every command of the trace against a fresh Banker and displays the
+	 * latency per command and the commands whose output differs from the recorded
+	 * run, judged by the length and CRC32 of the output. The Banker clock is set to
+	 * the recorded time of each command, so netting windows and standing orders
+	 * fall due as they did originally and transactions get the same timestamps and
+	 * hashes. Recorded ticks are replayed as ticks. The files named by ARCHIVE, RECOVER and AUDIT START are
+	 * replaced by copies in a scratch directory, so a replay never overwrites the
+	 * recorded run's archives.
+	 *
+	 * @param speedup 0 to replay as fast as possible, otherwise the factor by which
+	 *                the recorded pace is sped up
+	 */
+	public void replay(double speedup) {
+		PrintStream console = System.out;
+		try {
+			scratch = Files.createTempDirectory("trace-replay");
+		} catch (IOException ex) {
+			console.println("cannot create a scratch directory");
+			return;
+		}
+		TraceRecorder.OutputDigest digest = new TraceRecorder.OutputDigest();
+		System.setOut(new PrintStream(digest, true));
+		Banker banker = new Banker();
+		ReplayClock clock = new ReplayClock(wallMillis);
+		banker.setClock(clock);
+		int n = commands.size();
+		long[] latencies = new long[n];
+		int differences = 0;
+		int failures = 0;
+		List<String> shown = new ArrayList<String>();
+		long replayStart = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			if (speedup > 0) {
+				long due = replayStart + (long) (starts.get(i) / speedup);
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+			clock.setMillis(millis.get(i));
+			String command = commands.get(i) == null ? null : redirect(commands.get(i));
+			digest.reset();
+			long begin = System.nanoTime();
+			try {
+				if (command == null) {
+					banker.tick();
+				} else {
+					banker.execute(command);
+				}
+			} catch (RuntimeException ex) {
+				failures++;
+			}
+			latencies[i] = System.nanoTime() - begin;
+			System.out.flush();
+			if (digest.getLength() != lengths.get(i) || digest.getChecksum() != checksums.get(i)) {
+				differences++;
+				if (shown.size() < MAX_DIFFERENCES_SHOWN) {
+					shown.add("#" + Integer.toString(i + 1) + " " + keyword(i) + "\n  recorded: "
+							+ describe(lengths.get(i), checksums.get(i)) + "\n  replayed: "
+							+ describe(digest.getLength(), digest.getChecksum()));
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - replayStart;
+		System.setOut(console);
+		report(latencies, elapsed, differences, failures, shown);
+		for (String file : scratchFiles.values()) {
+			new File(file).delete();
+			new File(file + ".orders").delete();
+		}
+		scratch.toFile().delete();
+	}
+
+	/**
+	 * Returns a command with the files it writes or restores from replaced by
+	 * their copies in the scratch directory.
+	 */
+	private String redirect(String command) {
+		String[] words = command.split(" ");
+		int first;
+		int last;
+		if (words[0].equals("ARCHIVE") || words[0].equals("RECOVER")) {
+			first = 1;
+			last = 2;
+		} else if (words[0].equals("AUDIT") && words.length > 1 && words[1].equals("START")) {
+			first = 3;
+			last = 3;
+		} else {
+			return command;
+		}
+		for (int i = first; i <= last && i < words.length; i++) {
+			words[i] = scratchFile(words[i]);
+		}
+		return String.join(" ", words);
+	}
+
+	/**
+	 * Returns the scratch copy of a file. The first time a file is named, it and
+	 * its standing order sidecar are copied into the scratch directory if they
+	 * exist, so restoring an archive made before the recording still works.
+	 */
+	private String scratchFile(String file) {
+		String copy = scratchFiles.get(file);
+		if (copy != null) {
+			return copy;
+		}
+		copy = scratch.resolve(Integer.toString(scratchFiles.size()) + "-" + new File(file).getName()).toString();
+		scratchFiles.put(file, copy);
+		try {
+			for (String suffix : new String[] { "", ".orders" }) {
+				if (new File(file + suffix).isFile()) {
+					Files.copy(new File(file + suffix).toPath(), new File(copy + suffix).toPath());
+				}
+			}
+		} catch (IOException ex) {
+			// the replayed command reports the missing file
+		}
+		return copy;
+	}
+
+	private static String describe(long length, int checksum) {
+		return Long.toString(length) + " bytes, crc32 " + Integer.toHexString(checksum);
+	}
+
+	private void report(long[] latencies, long elapsed, int differences, int failures, List<String> shown) {
+		System.out.printf("replayed %d commands in %.3fs%n", latencies.length, elapsed / 1e9);
+		Map<String, List<Integer>> byKeyword = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < latencies.length; i++) {
+			String keyword = keyword(i).split("[\\s']")[0];
+			if (!byKeyword.containsKey(keyword)) {
+				byKeyword.put(keyword, new ArrayList<Integer>());
+			}
+			byKeyword.get(keyword).add(i);
+		}
+		System.out.printf("%-12s %7s %12s %12s %12s %12s%n", "command", "count", "p50 us", "p99 us", "max us",
+				"recorded p50");
+		for (Map.Entry<String, List<Integer>> entry : byKeyword.entrySet()) {
+			List<Integer> indexes = entry.getValue();
+			long[] replayed = new long[indexes.size()];
+			long[] recorded = new long[indexes.size()];
+			for (int i = 0; i < indexes.size(); i++) {
+				replayed[i] = latencies[indexes.get(i)];
+				recorded[i] = durations.get(indexes.get(i));
+			}
+			Arrays.sort(replayed);
+			Arrays.sort(recorded);
+			System.out.printf("%-12s %7d %12.1f %12.1f %12.1f %12.1f%n", entry.getKey(), replayed.length,
+					percentile(replayed, 0.50), percentile(replayed, 0.99), replayed[replayed.length - 1] / 1e3,
+					percentile(recorded, 0.50));
+		}
+		System.out.println(Integer.toString(failures) + " commands failed with an exception");
+		System.out.println(Integer.toString(differences) + " commands with different output");
+		for (String difference : shown) {
+			System.out.println(difference);
+		}
+	}
+
+	private String keyword(int i) {
+		return commands.get(i) == null ? "(tick)" : commands.get(i);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e3;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static class ReplayClock extends Clock {
+
+		private volatile long millis;
+
+		private ReplayClock(long millis) {
+			this.millis = millis;
+		}
+
+		private void setMillis(long millis) {
+			this.millis = millis;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1 && !(args.length == 3 && args[1].equals("--pace"))) {
+			System.out.println("usage: TraceReplayer <traceFile> [--pace <speedup>]");
+			return;
+		}
+		TraceReplayer replayer;
+		try {
+			replayer = new TraceReplayer(args[0]);
+		} catch (IOException ex) {
+			System.out.println("no such file");
+			return;
+		}
+		replayer.replay(args.length == 3 ? Double.parseDouble(args[2]) : 0);
+	}
+}
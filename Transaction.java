@@ -1,4 +1,6 @@
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Transaction {
 
@@ -8,6 +10,10 @@ public class Transaction {
     private int amount;
     private BankAccount sender;
     private BankAccount receiver;
+    private BankAccount[] senders;
+    private BankAccount[] receivers;
+    private int[] amounts;
+    private long timestamp;
 
     /**
      * Constructor for the Transaction class.
@@ -19,12 +25,104 @@ public class Transaction {
      * @param prevHash the hash of the previous transaction
      */
     public Transaction(int id, BankAccount sender, BankAccount receiver, int amount, String prevHash) {
+        this(id, sender, receiver, amount, prevHash, 0L);
+    }
+
+    /**
+     * Constructor for a transaction made at a known time. A non-zero timestamp is
+     * part of the hash.
+     *
+     * @param id        the ID of the transaction
+     * @param sender    the sending account
+     * @param receiver  the receiving account
+     * @param amount    the amount of money being transferred
+     * @param prevHash  the hash of the previous transaction
+     * @param timestamp the time of the transaction in epoch milliseconds, 0 if
+     *                  unknown
+     */
+    public Transaction(int id, BankAccount sender, BankAccount receiver, int amount, String prevHash,
+            long timestamp) {
         this.id = id;
         this.sender = sender;
         this.receiver = receiver;
         this.amount = amount;
         this.prevHash = prevHash;
-        this.transactionHash = generateHash(id, sender.getAccNo(), receiver.getAccNo(), amount, prevHash);
+        this.timestamp = timestamp;
+        this.transactionHash = generateHash(id, sender.getAccNo(), receiver.getAccNo(), amount, prevHash,
+                timestamp);
+    }
+
+    /**
+     * Constructor for a transaction restored from storage with a known hash.
+     *
+     * @param id       the ID of the transaction
+     * @param sender   the sending account
+     * @param receiver the receiving account
+     * @param amount   the amount of money being transferred
+     * @param prevHash the hash of the previous transaction
+     * @param hash     the recorded hash of the transaction
+     */
+    public Transaction(int id, BankAccount sender, BankAccount receiver, int amount, String prevHash, String hash) {
+        this.id = id;
+        this.sender = sender;
+        this.receiver = receiver;
+        this.amount = amount;
+        this.prevHash = prevHash;
+        this.transactionHash = hash;
+    }
+
+    /**
+     * Constructor for a multi-leg transaction, recorded as a single ledger entry.
+     * Leg i moves amounts[i] from senders[i] to receivers[i].
+     *
+     * @param id        the ID of the transaction
+     * @param senders   the sending account of each leg
+     * @param receivers the receiving account of each leg
+     * @param amounts   the amount of each leg
+     * @param prevHash  the hash of the previous transaction
+     */
+    public Transaction(int id, BankAccount[] senders, BankAccount[] receivers, int[] amounts, String prevHash) {
+        this(id, senders, receivers, amounts, prevHash, 0L);
+    }
+
+    /**
+     * Constructor for a multi-leg transaction made at a known time. A non-zero
+     * timestamp is part of the hash.
+     *
+     * @param id        the ID of the transaction
+     * @param senders   the sending account of each leg
+     * @param receivers the receiving account of each leg
+     * @param amounts   the amount of each leg
+     * @param prevHash  the hash of the previous transaction
+     * @param timestamp the time of the transaction in epoch milliseconds, 0 if
+     *                  unknown
+     */
+    public Transaction(int id, BankAccount[] senders, BankAccount[] receivers, int[] amounts, String prevHash,
+            long timestamp) {
+        this(id, senders, receivers, amounts, prevHash, (String) null);
+        this.timestamp = timestamp;
+        this.transactionHash = generateHash(id, accNos(senders), accNos(receivers), amounts, prevHash, timestamp);
+    }
+
+    /**
+     * Constructor for a multi-leg transaction restored from storage with a known
+     * hash.
+     *
+     * @param id        the ID of the transaction
+     * @param senders   the sending account of each leg
+     * @param receivers the receiving account of each leg
+     * @param amounts   the amount of each leg
+     * @param prevHash  the hash of the previous transaction
+     * @param hash      the recorded hash of the transaction
+     */
+    public Transaction(int id, BankAccount[] senders, BankAccount[] receivers, int[] amounts, String prevHash,
+            String hash) {
+        this(id, senders[0], receivers[0], amounts[0], prevHash, hash);
+        if (amounts.length > 1) {
+            this.senders = senders;
+            this.receivers = receivers;
+            this.amounts = amounts;
+        }
     }
 
     /**
@@ -33,11 +131,76 @@ public class Transaction {
      * @return the formatted String
      */
     public String get() {
-        String senderId = Integer.toString(sender.getAccNo());
-        String receiverId = Integer.toString(receiver.getAccNo());
-        String value = Integer.toString(amount);
         String transactionId = Integer.toString(id);
-        return transactionId + ": " + senderId + " -> " + receiverId + " | $" + value + " | " + transactionHash;
+        StringBuilder formatted = new StringBuilder();
+        formatted.append(transactionId).append(": ").append(leg(0)).append(" | ").append(transactionHash);
+        for (int i = 1; i < legCount(); i++) {
+            formatted.append("\n").append(transactionId).append(": ").append(leg(i)).append(" | ")
+                    .append(transactionHash);
+        }
+        return formatted.toString();
+    }
+
+    /**
+     * Returns the formatted string of one leg of the transaction.
+     *
+     * @param leg the index of the leg
+     * @return the formatted String
+     */
+    public String leg(int leg) {
+        String senderId = Integer.toString(getSender(leg).getAccNo());
+        String receiverId = Integer.toString(getReceiver(leg).getAccNo());
+        String value = Integer.toString(getAmount(leg));
+        return senderId + " -> " + receiverId + " | $" + value;
+    }
+
+    /**
+     * Returns the net change in balance the transaction causes for an account.
+     *
+     * @param accNo the account number
+     * @return the net change, 0 if not involved
+     */
+    public int netChange(int accNo) {
+        int change = 0;
+        for (int i = 0; i < legCount(); i++) {
+            if (getSender(i).getAccNo() == accNo) {
+                change -= getAmount(i);
+            } else if (getReceiver(i).getAccNo() == accNo) {
+                change += getAmount(i);
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Returns the amounts each account involved sent and received in the
+     * transaction as {sent, received}, keyed by account number in the order the
+     * accounts first appear in the legs. Takes a single pass over the legs.
+     *
+     * @return the flows of each account
+     */
+    public Map<Integer, long[]> flows() {
+        Map<Integer, long[]> flows = new LinkedHashMap<Integer, long[]>();
+        for (int i = 0; i < legCount(); i++) {
+            flows.computeIfAbsent(getSender(i).getAccNo(), k -> new long[2])[0] += getAmount(i);
+            flows.computeIfAbsent(getReceiver(i).getAccNo(), k -> new long[2])[1] += getAmount(i);
+        }
+        return flows;
+    }
+
+    /**
+     * Returns true if the account is the sender or receiver of any leg.
+     *
+     * @param accNo the account number
+     * @return whether the account is involved
+     */
+    public boolean involves(int accNo) {
+        for (int i = 0; i < legCount(); i++) {
+            if (getSender(i).getAccNo() == accNo || getReceiver(i).getAccNo() == accNo) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -54,20 +217,38 @@ public class Transaction {
         if (transactions.size() == 0) {
             return true;
         }
-        boolean valid = true;
-        String prevHash = null;
-        for (int i = 1; i <= transactions.size(); i++) {
+        return verify(transactions, 1, transactions.size()) == 0;
+    }
+
+    /**
+     * Checks the hash chain of part of a ledger, trusting the recorded hash of the
+     * entry before it. Returns the ID of the first entry whose hash does not
+     * match, or 0 if they all match.
+     *
+     * @param transactions the ledger, indexed by transaction ID - 1
+     * @param from         the ID of the first entry to check
+     * @param to           the ID of the last entry to check
+     * @return the ID of the first invalid entry, 0 if none
+     */
+    public static int verify(List<Transaction> transactions, int from, int to) {
+        String prevHash = from == 1 ? null : transactions.get(from - 2).getHash();
+        for (int i = from; i <= to; i++) {
             Transaction t = transactions.get(i - 1);
-            String checksum = generateHash(i, t.getSender().getAccNo(), t.getReceiver().getAccNo(), t.getAmount(),
-                    prevHash);
+            String checksum;
+            if (t.legCount() == 1) {
+                checksum = generateHash(i, t.getSender().getAccNo(), t.getReceiver().getAccNo(), t.getAmount(),
+                        prevHash, t.timestamp);
+            } else {
+                checksum = generateHash(i, accNos(t.senders), accNos(t.receivers), t.amounts, prevHash,
+                        t.timestamp);
+            }
             String recordedHash = t.getHash();
             prevHash = checksum;
             if (Integer.parseInt(checksum) != Integer.parseInt(recordedHash)) {
-                valid = false;
-                break;
+                return i;
             }
         }
-        return valid;
+        return 0;
     }
 
     /**
@@ -87,11 +268,91 @@ public class Transaction {
         return combined.hashCode() + "";
     }
 
+    /**
+     * Returns the hash code for a transaction made at a known time. A timestamp of
+     * 0 hashes the same as a transaction without one, so older archives still
+     * verify.
+     *
+     * @param id            the ID of the transaction
+     * @param senderAccNo   the account number of the sender
+     * @param receiverAccNo the account number of the receiver
+     * @param amount        the amount of money being transferred
+     * @param prevHash      the hash of the previous transaction
+     * @param timestamp     the time of the transaction in epoch milliseconds
+     * @return the generated hash
+     */
+    public static String generateHash(int id, int senderAccNo, int receiverAccNo, int amount, String prevHash,
+            long timestamp) {
+        if (timestamp == 0) {
+            return generateHash(id, senderAccNo, receiverAccNo, amount, prevHash);
+        }
+        return (id + "" + senderAccNo + "" + receiverAccNo + "" + amount + "" + prevHash + "@" + timestamp).hashCode()
+                + "";
+    }
+
+    /**
+     * Returns the hash code for a multi-leg transaction. A single leg hashes the
+     * same as the single transfer version.
+     *
+     * @param id             the ID of the transaction
+     * @param senderAccNos   the account number of the sender of each leg
+     * @param receiverAccNos the account number of the receiver of each leg
+     * @param amounts        the amount of each leg
+     * @param prevHash       the hash of the previous transaction
+     * @return the generated hash
+     */
+    public static String generateHash(int id, int[] senderAccNos, int[] receiverAccNos, int[] amounts,
+            String prevHash) {
+        return generateHash(id, senderAccNos, receiverAccNos, amounts, prevHash, 0);
+    }
+
+    /**
+     * Returns the hash code for a multi-leg transaction made at a known time. A
+     * timestamp of 0 hashes the same as a transaction without one.
+     *
+     * @param id             the ID of the transaction
+     * @param senderAccNos   the account number of the sender of each leg
+     * @param receiverAccNos the account number of the receiver of each leg
+     * @param amounts        the amount of each leg
+     * @param prevHash       the hash of the previous transaction
+     * @param timestamp      the time of the transaction in epoch milliseconds
+     * @return the generated hash
+     */
+    public static String generateHash(int id, int[] senderAccNos, int[] receiverAccNos, int[] amounts,
+            String prevHash, long timestamp) {
+        StringBuilder combined = new StringBuilder();
+        combined.append(id);
+        for (int i = 0; i < amounts.length; i++) {
+            combined.append(senderAccNos[i]).append(receiverAccNos[i]).append(amounts[i]);
+        }
+        combined.append(prevHash);
+        if (timestamp != 0) {
+            combined.append('@').append(timestamp);
+        }
+        return combined.toString().hashCode() + "";
+    }
+
+    private static int[] accNos(BankAccount[] accounts) {
+        int[] accNos = new int[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            accNos[i] = accounts[i].getAccNo();
+        }
+        return accNos;
+    }
+
     public int getId() {
         return id;
     }
 
+    /**
+     * Gets the amount of a single transfer. The legs of a multi-leg transaction
+     * are read with getAmount(int).
+     *
+     * @return the amount
+     * @throws IllegalStateException if the transaction has more than one leg
+     */
     public int getAmount() {
+        checkSingleLeg();
         return amount;
     }
 
@@ -99,14 +360,52 @@ public class Transaction {
         return transactionHash;
     }
 
+    /**
+     * Gets the sender of a single transfer. The legs of a multi-leg transaction
+     * are read with getSender(int).
+     *
+     * @return the sending account
+     * @throws IllegalStateException if the transaction has more than one leg
+     */
     public BankAccount getSender() {
+        checkSingleLeg();
         return sender;
     }
 
+    /**
+     * Gets the receiver of a single transfer. The legs of a multi-leg transaction
+     * are read with getReceiver(int).
+     *
+     * @return the receiving account
+     * @throws IllegalStateException if the transaction has more than one leg
+     */
     public BankAccount getReceiver() {
+        checkSingleLeg();
         return receiver;
     }
 
+    private void checkSingleLeg() {
+        if (amounts != null) {
+            throw new IllegalStateException("transaction " + id + " has " + amounts.length + " legs");
+        }
+    }
+
+    public int legCount() {
+        return amounts == null ? 1 : amounts.length;
+    }
+
+    public int getAmount(int leg) {
+        return amounts == null ? amount : amounts[leg];
+    }
+
+    public BankAccount getSender(int leg) {
+        return senders == null ? sender : senders[leg];
+    }
+
+    public BankAccount getReceiver(int leg) {
+        return receivers == null ? receiver : receivers[leg];
+    }
+
     public String getPrevHash() {
         return prevHash;
     }
@@ -114,4 +413,12 @@ public class Transaction {
     public void setHash(String hash) {
         this.transactionHash = hash;
     }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
 }
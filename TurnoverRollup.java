@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+public class TurnoverRollup {
+
+	public static final long MINUTE = 60;
+	public static final long HOUR = 60 * MINUTE;
+	public static final long DAY = 24 * HOUR;
+	public static final long MINUTE_RETENTION = DAY;
+	public static final long HOUR_RETENTION = 31 * DAY;
+	private static final long[] WIDTHS = { MINUTE, HOUR, DAY };
+	private static final int INITIAL_CAPACITY = 4;
+
+	private Level[] levels;
+	private long newest;
+
+	/**
+	 * Constructor for the TurnoverRollup object. The rollup keeps the amounts an
+	 * account sent and received per minute, per hour and per day, so the turnover
+	 * between two times is the sum of a few whole days, at most 46 hours and at
+	 * most 118 minutes.
+	 *
+	 * Minute buckets are only kept for MINUTE_RETENTION and hour buckets for
+	 * HOUR_RETENTION before the newest time added, plus the width of the next
+	 * level so the ends of a range can still be covered, so only the day buckets
+	 * grow with the age of the account.
+	 */
+	public TurnoverRollup() {
+		this.levels = new Level[WIDTHS.length];
+		for (int i = 0; i < WIDTHS.length; i++) {
+			levels[i] = new Level(WIDTHS[i]);
+		}
+		this.newest = 0;
+	}
+
+	/**
+	 * Adds the amounts of a transaction to the buckets holding its time.
+	 *
+	 * @param seconds  the time of the transaction in seconds since the epoch
+	 * @param sent     the amount the account sent
+	 * @param received the amount the account received
+	 */
+	public void add(long seconds, long sent, long received) {
+		for (Level level : levels) {
+			level.add(seconds, sent, received);
+		}
+		if (seconds > newest) {
+			newest = seconds;
+			levels[0].prune(newest - MINUTE_RETENTION - HOUR);
+			levels[1].prune(newest - HOUR_RETENTION - DAY);
+		}
+	}
+
+	/**
+	 * Returns the newest time added.
+	 *
+	 * @return the time in seconds since the epoch, 0 if none
+	 */
+	public long getNewest() {
+		return newest;
+	}
+
+	/**
+	 * Adds the amounts sent and received from one time up to another to a total.
+	 * Both times are rounded down to the minute if they are within
+	 * MINUTE_RETENTION of now, to the hour if they are within HOUR_RETENTION, and
+	 * to the day otherwise.
+	 *
+	 * @param from  the start time in seconds since the epoch, inclusive
+	 * @param to    the end time in seconds since the epoch, exclusive
+	 * @param now   the time the retention is counted back from, which must not be
+	 *              before the newest time added
+	 * @param total the {sent, received} total to add to
+	 */
+	public void turnover(long from, long to, long now, long[] total) {
+		cover(levels.length - 1, round(from, now), round(to, now), total);
+	}
+
+	/**
+	 * Rounds a time down to the finest bucket width still kept for it.
+	 *
+	 * @param seconds the time in seconds since the epoch
+	 * @param now     the time the retention is counted back from
+	 * @return the rounded time
+	 */
+	public static long round(long seconds, long now) {
+		long width = DAY;
+		if (seconds >= now - MINUTE_RETENTION) {
+			width = MINUTE;
+		} else if (seconds >= now - HOUR_RETENTION) {
+			width = HOUR;
+		}
+		return Math.floorDiv(seconds, width) * width;
+	}
+
+	/**
+	 * Adds the buckets covering a minute-aligned range, using the widest buckets
+	 * that fit and narrower ones for the ends.
+	 */
+	private void cover(int level, long from, long to, long[] total) {
+		if (from >= to) {
+			return;
+		}
+		long width = WIDTHS[level];
+		long low = Math.floorDiv(from + width - 1, width) * width;
+		long high = Math.floorDiv(to, width) * width;
+		if (level == 0 || low >= high) {
+			if (level == 0) {
+				levels[0].sum(from, to, total);
+			} else {
+				cover(level - 1, from, to, total);
+			}
+			return;
+		}
+		levels[level].sum(low, high, total);
+		cover(level - 1, from, low, total);
+		cover(level - 1, high, to, total);
+	}
+
+	private static class Level {
+		private long width;
+		private long[] starts = new long[INITIAL_CAPACITY];
+		private long[] sent = new long[INITIAL_CAPACITY];
+		private long[] received = new long[INITIAL_CAPACITY];
+		private int size = 0;
+
+		private Level(long width) {
+			this.width = width;
+		}
+
+		private void add(long seconds, long amountSent, long amountReceived) {
+			long start = Math.floorDiv(seconds, width) * width;
+			int i = size - 1;
+			if (size == 0 || starts[i] < start) {
+				i = size;
+			} else if (starts[i] != start) {
+				i = Arrays.binarySearch(starts, 0, size, start);
+			}
+			if (i < 0 || i == size) {
+				i = i < 0 ? -i - 1 : i;
+				if (size == starts.length) {
+					starts = Arrays.copyOf(starts, size * 2);
+					sent = Arrays.copyOf(sent, size * 2);
+					received = Arrays.copyOf(received, size * 2);
+				}
+				System.arraycopy(starts, i, starts, i + 1, size - i);
+				System.arraycopy(sent, i, sent, i + 1, size - i);
+				System.arraycopy(received, i, received, i + 1, size - i);
+				starts[i] = start;
+				sent[i] = 0;
+				received[i] = 0;
+				size++;
+			}
+			sent[i] += amountSent;
+			received[i] += amountReceived;
+		}
+
+		/**
+		 * Drops the buckets starting before a time.
+		 */
+		private void prune(long before) {
+			int kept = 0;
+			while (kept < size && starts[kept] < before) {
+				kept++;
+			}
+			if (kept == 0) {
+				return;
+			}
+			size -= kept;
+			System.arraycopy(starts, kept, starts, 0, size);
+			System.arraycopy(sent, kept, sent, 0, size);
+			System.arraycopy(received, kept, received, 0, size);
+		}
+
+		private void sum(long from, long to, long[] total) {
+			int i = Arrays.binarySearch(starts, 0, size, from);
+			if (i < 0) {
+				i = -i - 1;
+			}
+			for (; i < size && starts[i] < to; i++) {
+				total[0] += sent[i];
+				total[1] += received[i];
+			}
+		}
+	}
+}